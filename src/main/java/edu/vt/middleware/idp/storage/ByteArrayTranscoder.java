@@ -0,0 +1,41 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Passes byte array values through unchanged. Values are stored with the same flags as {@link StringTranscoder},
+ * so values written by either transcoder may be read by the other.
+ *
+ * @author Marvin S. Addison
+ */
+public class ByteArrayTranscoder implements Transcoder<byte[]> {
+
+    /** Max size is maximum default memcached value size, 1MB. */
+    private static final int MAX_SIZE = 1024 * 1024;
+
+
+    @Override
+    public boolean asyncDecode(CachedData d) {
+        return false;
+    }
+
+    @Override
+    public CachedData encode(final byte[] o) {
+        return new CachedData(0, o, MAX_SIZE);
+    }
+
+    @Override
+    public byte[] decode(final CachedData d) {
+        return d.getData();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return MAX_SIZE;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.CASOperationStatus;
+import net.spy.memcached.ops.CancelledOperationStatus;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.ops.TimedOutOperationStatus;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Memcached client whose CAS operation futures report the CAS value of the stored item, i.e. the new record version,
+ * via {@link OperationFuture#getCas()}. The stock client discards the CAS value returned in the binary protocol
+ * response to a CAS operation, so {@link MemcachedStorageService#updateWithVersion(long, String, String, String, Long)}
+ * must otherwise read the item again to learn its new version. The CAS value is only available under the binary
+ * protocol.
+ *
+ * @author Marvin S. Addison
+ */
+public class CASReportingMemcachedClient extends MemcachedClient {
+
+    /**
+     * Creates a new instance.
+     *
+     * @param cf Connection factory, which should produce binary protocol connections.
+     * @param addrs Memcached server addresses.
+     *
+     * @throws IOException On errors establishing connections.
+     */
+    public CASReportingMemcachedClient(final ConnectionFactory cf, final List<InetSocketAddress> addrs)
+            throws IOException {
+        super(cf, addrs);
+    }
+
+    @Override
+    public <T> OperationFuture<CASResponse> asyncCAS(
+            final String key, final long casId, final int exp, final T value, final Transcoder<T> tc) {
+        final CachedData co = tc.encode(value);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final OperationFuture<CASResponse> rv = new OperationFuture<>(key, latch, operationTimeout, executorService);
+        final Operation op = opFact.cas(StoreType.set, key, casId, co.getFlags(), exp, co.getData(),
+                new StoreOperation.Callback() {
+                    @Override
+                    public void receivedStatus(final OperationStatus status) {
+                        if (status instanceof CASOperationStatus) {
+                            rv.set(((CASOperationStatus) status).getCASResponse(), status);
+                        } else if (status instanceof CancelledOperationStatus) {
+                            getLogger().debug("CAS operation cancelled");
+                        } else if (status instanceof TimedOutOperationStatus) {
+                            getLogger().debug("CAS operation timed out");
+                        } else {
+                            throw new RuntimeException("Unhandled state: " + status);
+                        }
+                    }
+
+                    @Override
+                    public void gotData(final String k, final long cas) {
+                        rv.setCas(cas);
+                    }
+
+                    @Override
+                    public void complete() {
+                        latch.countDown();
+                        rv.signalComplete();
+                    }
+                });
+        rv.setOperation(op);
+        mconn.enqueueOperation(key, op);
+        return rv;
+    }
+}
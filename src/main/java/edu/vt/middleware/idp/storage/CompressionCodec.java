@@ -0,0 +1,59 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Compresses record values stored by {@link StorageRecordTranscoder}. Implementations must be thread safe. The
+ * identifier of the codec that compressed an item is stored in the item flags, so identifiers must be unique among
+ * the codecs in use and must never be reassigned while compressed items may exist.
+ *
+ * @author Marvin S. Addison
+ */
+public interface CompressionCodec {
+
+    /**
+     * Gets the identifier stored with items compressed by this codec.
+     *
+     * @return Identifier from 1 to 255.
+     */
+    int getId();
+
+    /**
+     * Compresses bytes into the given destination buffer.
+     *
+     * @param src Source buffer.
+     * @param srcOffset Offset of the first byte to compress.
+     * @param srcLength Number of bytes to compress.
+     * @param dest Destination buffer.
+     * @param destOffset Offset in the destination buffer of the first compressed byte.
+     * @param destLength Maximum number of compressed bytes to write.
+     *
+     * @return Number of compressed bytes written, or -1 if the compressed form does not fit in
+     * <code>destLength</code> bytes.
+     */
+    int compress(
+            @Nonnull byte[] src, int srcOffset, int srcLength, @Nonnull byte[] dest, int destOffset, int destLength);
+
+    /**
+     * Decompresses bytes into the given destination buffer.
+     *
+     * @param src Source buffer.
+     * @param srcOffset Offset of the first compressed byte.
+     * @param srcLength Number of compressed bytes.
+     * @param dest Destination buffer.
+     * @param destOffset Offset in the destination buffer of the first decompressed byte.
+     * @param destLength Exact number of decompressed bytes.
+     *
+     * @throws IOException If the compressed data is malformed or does not decompress to exactly
+     * <code>destLength</code> bytes.
+     */
+    void decompress(
+            @Nonnull byte[] src, int srcOffset, int srcLength, @Nonnull byte[] dest, int destOffset, int destLength)
+            throws IOException;
+}
@@ -0,0 +1,280 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Converts the memcached keys held in context key-tracking lists to bytes and back. Two list formats are supported:
+ * <ol>
+ *     <li><em>Text</em>: keys delimited by newline characters. This is the original format.</li>
+ *     <li><em>Compact</em>: a leading {@link #COMPACT_FORMAT_MARKER} byte followed by binary entries. Keys of the
+ *     form <code>namespace:key</code> are stored without the namespace, which is common to all keys in a list, and
+ *     hashed keys are stored as raw hash bytes rather than hex characters. Each entry consists of a type byte and a
+ *     varint length followed by the entry bytes.</li>
+ * </ol>
+ * A list is written in the format chosen when it was created and its format is recognized by the first byte when
+ * decoded. Entries of one format appended to a list of the other cannot be decoded, so lists of the two formats
+ * must be kept under different memcached keys. Lists are decoded into a consumer one key at a time without
+ * splitting the list into intermediate strings.
+ *
+ * @author Marvin S. Addison
+ */
+public final class ContextKeyListCodec {
+
+    /** First byte of a compact list. Text lists never contain a null character. */
+    public static final byte COMPACT_FORMAT_MARKER = 0;
+
+    /** Delimiter of keys in a text list. */
+    private static final byte TEXT_DELIMITER = '\n';
+
+    /** Compact entry type of a key stored relative to the context namespace. */
+    private static final byte RELATIVE_ENTRY = 1;
+
+    /** Compact entry type of a hex-encoded hashed key stored as raw bytes. */
+    private static final byte HASHED_ENTRY = 2;
+
+    /** Compact entry type of a key stored as is. */
+    private static final byte LITERAL_ENTRY = 3;
+
+    /** Length of the hex encoded SHA-512 hashes that stand in for long keys. */
+    private static final int HASHED_KEY_LENGTH = 128;
+
+    /** Hex digits used to encode hashed keys. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    /** Private constructor of utility class. */
+    private ContextKeyListCodec() {}
+
+    /**
+     * Encodes memcached keys as a list or as an addition to an existing list.
+     *
+     * @param namespace Namespace of the context to which the keys belong.
+     * @param keys Memcached keys.
+     * @param compact True to produce compact format, false to produce text format.
+     * @param newList True to produce a complete list, false to produce bytes to be appended to an existing list.
+     *
+     * @return Encoded keys.
+     */
+    @Nonnull
+    public static byte[] encode(
+            @Nonnull final String namespace,
+            @Nonnull final Collection<String> keys,
+            final boolean compact,
+            final boolean newList) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(keys.size() * 32 + 1);
+        if (!compact) {
+            for (String key : keys) {
+                final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                out.write(TEXT_DELIMITER);
+            }
+            return out.toByteArray();
+        }
+        if (newList) {
+            out.write(COMPACT_FORMAT_MARKER);
+        }
+        final String prefix = namespace + ':';
+        for (String key : keys) {
+            final byte[] bytes;
+            if (key.startsWith(prefix)) {
+                out.write(RELATIVE_ENTRY);
+                bytes = key.substring(prefix.length()).getBytes(StandardCharsets.UTF_8);
+            } else if (isHashedKey(key)) {
+                out.write(HASHED_ENTRY);
+                bytes = hexDecode(key);
+            } else {
+                out.write(LITERAL_ENTRY);
+                bytes = key.getBytes(StandardCharsets.UTF_8);
+            }
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a list in either format, passing each memcached key to the given consumer in list order.
+     *
+     * @param namespace Namespace of the context to which the list belongs.
+     * @param list Encoded list.
+     * @param consumer Receives each key in the list.
+     *
+     * @throws IOException If the list is malformed.
+     */
+    public static void decode(
+            @Nonnull final String namespace,
+            @Nonnull final byte[] list,
+            @Nonnull final Consumer<String> consumer) throws IOException {
+        if (isCompact(list)) {
+            decodeCompact(namespace, list, consumer);
+        } else {
+            decodeText(list, consumer);
+        }
+    }
+
+    /**
+     * Determines whether the given list is in compact format.
+     *
+     * @param list Encoded list.
+     *
+     * @return True if list is in compact format, false if it is in text format.
+     */
+    public static boolean isCompact(@Nonnull final byte[] list) {
+        return list.length > 0 && list[0] == COMPACT_FORMAT_MARKER;
+    }
+
+    /**
+     * Decodes a text list.
+     *
+     * @param list Encoded list.
+     * @param consumer Receives each key in the list.
+     */
+    private static void decodeText(final byte[] list, final Consumer<String> consumer) {
+        int start = 0;
+        for (int i = 0; i < list.length; i++) {
+            if (list[i] == TEXT_DELIMITER) {
+                if (i > start) {
+                    consumer.accept(new String(list, start, i - start, StandardCharsets.UTF_8));
+                }
+                start = i + 1;
+            }
+        }
+        if (start < list.length) {
+            consumer.accept(new String(list, start, list.length - start, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Decodes a compact list.
+     *
+     * @param namespace Namespace of the context to which the list belongs.
+     * @param list Encoded list.
+     * @param consumer Receives each key in the list.
+     *
+     * @throws IOException If the list is malformed.
+     */
+    private static void decodeCompact(final String namespace, final byte[] list, final Consumer<String> consumer)
+            throws IOException {
+        // Relative keys are assembled after the namespace prefix in a reusable buffer to produce each key in one step
+        final byte[] prefix = (namespace + ':').getBytes(StandardCharsets.UTF_8);
+        byte[] buffer = Arrays.copyOf(prefix, prefix.length + 64);
+        int pos = 1;
+        while (pos < list.length) {
+            final int entryStart = pos;
+            final byte type = list[pos++];
+            int length = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos >= list.length || shift > 28) {
+                    throw new IOException("Malformed entry length at position " + pos);
+                }
+                b = list[pos++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (length < 0 || length > list.length - pos) {
+                throw new IOException("Truncated entry at position " + pos);
+            }
+            switch (type) {
+            case RELATIVE_ENTRY:
+                if (buffer.length < prefix.length + length) {
+                    buffer = Arrays.copyOf(buffer, prefix.length + length);
+                }
+                System.arraycopy(list, pos, buffer, prefix.length, length);
+                consumer.accept(new String(buffer, 0, prefix.length + length, StandardCharsets.UTF_8));
+                break;
+            case HASHED_ENTRY:
+                consumer.accept(hexEncode(list, pos, length));
+                break;
+            case LITERAL_ENTRY:
+                consumer.accept(new String(list, pos, length, StandardCharsets.UTF_8));
+                break;
+            default:
+                throw new IOException("Unknown entry type " + type + " at position " + entryStart);
+            }
+            pos += length;
+        }
+    }
+
+    /**
+     * Writes an unsigned variable-length integer, seven bits per byte, least significant group first.
+     *
+     * @param out Output stream.
+     * @param value Non-negative value.
+     */
+    private static void writeVarint(final ByteArrayOutputStream out, final int value) {
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /**
+     * Determines whether the given key is a hashed key, i.e. a lowercase hex encoded SHA-512 hash.
+     *
+     * @param key Memcached key.
+     *
+     * @return True if key is a hashed key, false otherwise.
+     */
+    private static boolean isHashedKey(final String key) {
+        if (key.length() != HASHED_KEY_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a lowercase hex string.
+     *
+     * @param hex Hex string of even length.
+     *
+     * @return Decoded bytes.
+     */
+    private static byte[] hexDecode(final String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4
+                    | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes bytes as a lowercase hex string.
+     *
+     * @param bytes Source bytes.
+     * @param offset Offset of first byte to encode.
+     * @param length Number of bytes to encode.
+     *
+     * @return Hex string.
+     */
+    private static String hexEncode(final byte[] bytes, final int offset, final int length) {
+        final char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            final int b = bytes[offset + i] & 0xFF;
+            chars[2 * i] = HEX_DIGITS[b >>> 4];
+            chars[2 * i + 1] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Compresses with the raw Deflate format of {@link Deflater}. Deflaters and inflaters are kept in bounded pools and
+ * reset for each use, which avoids the considerable cost of allocating their native state on every operation. Each
+ * pooled deflater holds about 256 KB of native zlib state outside the Java heap and each inflater about 40 KB, so
+ * the pool size bounds the native memory retained by the codec; operations that find the pool empty allocate a new
+ * instance, which is released once the pool is full again.
+ *
+ * @author Marvin S. Addison
+ */
+public class DeflateCompressionCodec implements CompressionCodec {
+
+    /** Codec identifier. */
+    public static final int ID = 1;
+
+    /** Default maximum number of idle deflaters and of idle inflaters, enough to keep every processor busy. */
+    private static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    /** Compression level. */
+    private final int level;
+
+    /** Idle deflaters. */
+    private final BlockingQueue<Deflater> deflaters;
+
+    /** Idle inflaters. */
+    private final BlockingQueue<Inflater> inflaters;
+
+
+    /** Creates a new instance with the fast compression level, which suits the latency of storage operations. */
+    public DeflateCompressionCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Creates a new instance that keeps at most one idle deflater and inflater per processor.
+     *
+     * @param level Deflate compression level from 1 (fastest) to 9 (smallest).
+     */
+    public DeflateCompressionCodec(final int level) {
+        this(level, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param level Deflate compression level from 1 (fastest) to 9 (smallest).
+     * @param poolSize Maximum number of idle deflaters and of idle inflaters kept for reuse.
+     */
+    public DeflateCompressionCodec(final int level, @Positive final int poolSize) {
+        Constraint.isTrue(level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION,
+                "Compression level must be between 1 and 9");
+        Constraint.isGreaterThan(0, poolSize, "Pool size must be positive");
+        this.level = level;
+        this.deflaters = new ArrayBlockingQueue<>(poolSize);
+        this.inflaters = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Gets the compression level.
+     *
+     * @return Deflate compression level.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public int compress(
+            @Nonnull final byte[] src,
+            final int srcOffset,
+            final int srcLength,
+            @Nonnull final byte[] dest,
+            final int destOffset,
+            final int destLength) {
+        final Deflater pooled = deflaters.poll();
+        final Deflater d = pooled != null ? pooled : new Deflater(level, true);
+        try {
+            d.setInput(src, srcOffset, srcLength);
+            d.finish();
+            int written = 0;
+            while (!d.finished() && written < destLength) {
+                written += d.deflate(dest, destOffset + written, destLength - written);
+            }
+            return d.finished() ? written : -1;
+        } finally {
+            d.reset();
+            if (!deflaters.offer(d)) {
+                d.end();
+            }
+        }
+    }
+
+    @Override
+    public void decompress(
+            @Nonnull final byte[] src,
+            final int srcOffset,
+            final int srcLength,
+            @Nonnull final byte[] dest,
+            final int destOffset,
+            final int destLength) throws IOException {
+        final Inflater pooled = inflaters.poll();
+        final Inflater i = pooled != null ? pooled : new Inflater(true);
+        int read = 0;
+        try {
+            i.setInput(src, srcOffset, srcLength);
+            while (read < destLength) {
+                final int n = i.inflate(dest, destOffset + read, destLength - read);
+                if (n == 0 && (i.finished() || i.needsInput() || i.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed data", e);
+        } finally {
+            i.reset();
+            if (!inflaters.offer(i)) {
+                i.end();
+            }
+        }
+        if (read != destLength) {
+            throw new IOException("Compressed data decompressed to unexpected length");
+        }
+    }
+}
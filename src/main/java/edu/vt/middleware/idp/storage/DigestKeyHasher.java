@@ -0,0 +1,120 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Shortens keys to the lowercase hex encoding of a message digest. The default SHA-512 hasher produces the
+ * 128-character keys used by earlier versions of this storage service, so it must be used where existing items are
+ * to remain addressable. Digests are computed with one {@link MessageDigest} per thread.
+ *
+ * @author Marvin S. Addison
+ */
+public class DigestKeyHasher implements KeyHasher {
+
+    /** Hex digits used to encode hashes. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Digest algorithm name. */
+    @Nonnull
+    private final String algorithm;
+
+    /** Digest state of each thread. */
+    private final ThreadLocal<Scratch> scratch;
+
+
+    /** Creates a new instance that hashes with SHA-512. */
+    public DigestKeyHasher() {
+        this("SHA-512");
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param algorithm JCA name of a digest algorithm whose hex-encoded output is at most 250 characters, e.g.
+     *                  <code>SHA-256</code>.
+     */
+    public DigestKeyHasher(@Nonnull final String algorithm) {
+        Constraint.isNotNull(algorithm, "Algorithm cannot be null");
+        Constraint.isTrue(newDigest(algorithm).getDigestLength() * 2 <= MemcachedKeyBuilder.MAX_KEY_LENGTH,
+                "Digest output too long for a memcached key: " + algorithm);
+        this.algorithm = algorithm;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(newDigest(algorithm)));
+    }
+
+    /**
+     * Gets the digest algorithm name.
+     *
+     * @return Digest algorithm.
+     */
+    @Nonnull
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    @Nonnull
+    public String hash(@Nonnull final byte[] key, final int offset, final int length) {
+        final Scratch s = scratch.get();
+        s.digest.update(key, offset, length);
+        try {
+            s.digest.digest(s.hash, 0, s.hash.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Digest failed", e);
+        }
+        for (int i = 0; i < s.hash.length; i++) {
+            final int b = s.hash[i] & 0xFF;
+            s.hex[2 * i] = HEX_DIGITS[b >>> 4];
+            s.hex[2 * i + 1] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(s.hex);
+    }
+
+    /**
+     * Creates a message digest.
+     *
+     * @param algorithm Digest algorithm.
+     *
+     * @return New digest instance.
+     */
+    private static MessageDigest newDigest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm " + algorithm, e);
+        }
+    }
+
+    /** Buffers reused by all hashes computed on one thread. */
+    private static final class Scratch {
+
+        /** Message digest. */
+        private final MessageDigest digest;
+
+        /** Digest output. */
+        private final byte[] hash;
+
+        /** Hex encoding of the digest output. */
+        private final char[] hex;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param digest Message digest.
+         */
+        Scratch(final MessageDigest digest) {
+            this.digest = digest;
+            this.hash = new byte[digest.getDigestLength()];
+            this.hex = new char[2 * hash.length];
+        }
+    }
+}
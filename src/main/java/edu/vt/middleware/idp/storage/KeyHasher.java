@@ -0,0 +1,29 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Shortens memcached keys that exceed the maximum key length by hashing them. Implementations must be thread safe
+ * and must produce keys of no more than 250 characters that are safe for memcached, i.e. contain no whitespace or
+ * control characters.
+ *
+ * @author Marvin S. Addison
+ */
+public interface KeyHasher {
+
+    /**
+     * Hashes the UTF-8 encoding of a key.
+     *
+     * @param key Buffer that holds the encoded key.
+     * @param offset Offset of the first byte of the key.
+     * @param length Length of the key in bytes.
+     *
+     * @return Shortened key.
+     */
+    @Nonnull
+    String hash(@Nonnull byte[] key, int offset, int length);
+}
@@ -0,0 +1,162 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Builds memcached keys from a namespace and a local key. Keys whose length is greater than {@link #MAX_KEY_LENGTH}
+ * are replaced by the hash of their UTF-8 encoding computed by a {@link KeyHasher}, by default the hex encoded
+ * SHA-512 hash. The parts of each key are copied into a per-thread scratch buffer and, where hashing is required,
+ * encoded there as well, so building a key allocates little beyond the resulting string.
+ *
+ * @author Marvin S. Addison
+ */
+public class MemcachedKeyBuilder {
+
+    /** Maximum length in bytes of memcached keys. */
+    public static final int MAX_KEY_LENGTH = 250;
+
+    /** Separator between namespace and local key. */
+    private static final char SEPARATOR = ':';
+
+    /** Scratch buffers of the current thread. */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /** Shortens keys that are too long. */
+    @Nonnull
+    private final KeyHasher hasher;
+
+
+    /** Creates a new instance that shortens long keys with a SHA-512 {@link DigestKeyHasher}. */
+    public MemcachedKeyBuilder() {
+        this(new DigestKeyHasher());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param hasher Shortens keys that are too long.
+     */
+    public MemcachedKeyBuilder(@Nonnull final KeyHasher hasher) {
+        Constraint.isNotNull(hasher, "Key hasher cannot be null");
+        this.hasher = hasher;
+    }
+
+    /**
+     * Gets the hasher that shortens keys that are too long.
+     *
+     * @return Key hasher.
+     */
+    @Nonnull
+    public KeyHasher getHasher() {
+        return hasher;
+    }
+
+    /**
+     * Builds a memcached key from a single part, e.g. a context name.
+     *
+     * @param key Key.
+     *
+     * @return Key comprised of 250 characters or less.
+     */
+    @Nonnull
+    public String build(@Nonnull final String key) {
+        if (key.length() <= MAX_KEY_LENGTH) {
+            return key;
+        }
+        final Scratch scratch = SCRATCH.get();
+        final char[] chars = scratch.chars(key.length());
+        key.getChars(0, key.length(), chars, 0);
+        return hash(scratch, key.length());
+    }
+
+    /**
+     * Builds a memcached key of the form <code>namespace:key</code>.
+     *
+     * @param namespace Namespace.
+     * @param key Local key.
+     *
+     * @return Key comprised of 250 characters or less.
+     */
+    @Nonnull
+    public String build(@Nonnull final String namespace, @Nonnull final String key) {
+        final int length = namespace.length() + 1 + key.length();
+        final Scratch scratch = SCRATCH.get();
+        final char[] chars = scratch.chars(length);
+        namespace.getChars(0, namespace.length(), chars, 0);
+        chars[namespace.length()] = SEPARATOR;
+        key.getChars(0, key.length(), chars, namespace.length() + 1);
+        if (length <= MAX_KEY_LENGTH) {
+            return new String(chars, 0, length);
+        }
+        return hash(scratch, length);
+    }
+
+    /**
+     * Hashes the key held in the character buffer of the given scratch space.
+     *
+     * @param scratch Scratch space of the current thread.
+     * @param length Length of the key.
+     *
+     * @return Hash of the UTF-8 encoded key.
+     */
+    private String hash(final Scratch scratch, final int length) {
+        final char[] chars = scratch.chars;
+        final byte[] bytes = scratch.bytes(length);
+        for (int i = 0; i < length; i++) {
+            final char c = chars[i];
+            if (c > 0x7F) {
+                // Keys are expected to be ASCII; defer to the platform encoder for anything else
+                final byte[] encoded = new String(chars, 0, length).getBytes(StandardCharsets.UTF_8);
+                return hasher.hash(encoded, 0, encoded.length);
+            }
+            bytes[i] = (byte) c;
+        }
+        return hasher.hash(bytes, 0, length);
+    }
+
+    /** Buffers reused by all keys built on one thread. */
+    private static final class Scratch {
+
+        /** Characters of the key being built. */
+        private char[] chars = new char[2 * MAX_KEY_LENGTH];
+
+        /** UTF-8 encoding of the key being hashed. */
+        private byte[] bytes = new byte[2 * MAX_KEY_LENGTH];
+
+        /**
+         * Gets the character buffer, growing it if needed.
+         *
+         * @param length Required capacity.
+         *
+         * @return Character buffer of at least the required capacity.
+         */
+        char[] chars(final int length) {
+            if (chars.length < length) {
+                chars = new char[length];
+            }
+            return chars;
+        }
+
+        /**
+         * Gets the byte buffer, growing it if needed.
+         *
+         * @param length Required capacity.
+         *
+         * @return Byte buffer of at least the required capacity.
+         */
+        byte[] bytes(final int length) {
+            if (bytes.length < length) {
+                bytes = new byte[length];
+            }
+            return bytes;
+        }
+    }
+}
@@ -4,20 +4,34 @@
 
 package edu.vt.middleware.idp.storage;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageSerializer;
 
 /**
- * Storage record implementation for use with {@link MemcachedStorageService}.
+ * Storage record implementation for use with {@link MemcachedStorageService}. Records read from memcached retain
+ * the UTF-8 encoded value and decode it on first access, so reads that only need the version or expiration never
+ * build the value string, and the encoded and decoded forms of a value are not held at the same time.
  *
  * @author Marvin S. Addison
  */
 public class MemcachedStorageRecord extends StorageRecord {
 
+    /** Buffer holding the encoded value until it is decoded; null once decoded or if created from a string. */
+    @Nullable
+    private volatile byte[] encodedValue;
+
+    /** Offset of the encoded value in its buffer. */
+    private final int encodedOffset;
+
     /**
      * Creates a new instance with specific record version.
      *
@@ -26,6 +40,46 @@ public class MemcachedStorageRecord extends StorageRecord {
      */
     public MemcachedStorageRecord(@Nonnull @NotEmpty String val, @Nullable Long exp) {
         super(val, exp);
+        encodedOffset = 0;
+    }
+
+    /**
+     * Creates a new instance whose value is decoded from UTF-8 on first access. The buffer is retained, not copied,
+     * and must not be modified afterward.
+     *
+     * @param buffer Buffer whose bytes from <code>offset</code> to the end are the UTF-8 encoded value.
+     * @param offset Offset of the encoded value in the buffer.
+     * @param exp Expiration instant in milliseconds, null for infinite expiration.
+     */
+    public MemcachedStorageRecord(@Nonnull final byte[] buffer, @NonNegative final int offset, @Nullable Long exp) {
+        // Value is set when decoded
+        super(null, exp);
+        encodedValue = buffer;
+        encodedOffset = offset;
+    }
+
+    @Override
+    public String getValue() {
+        decodeValue();
+        return super.getValue();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object getValue(
+            @Nonnull final StorageSerializer serializer,
+            @Nonnull @NotEmpty final String sContext,
+            @Nonnull @NotEmpty final String key) throws IOException {
+        // The superclass deserializes its value field directly
+        decodeValue();
+        return super.getValue(serializer, sContext, key);
+    }
+
+    @Override
+    protected synchronized void setValue(@Nonnull @NotEmpty final String val) {
+        // Buffer is released last so a reader that finds it released also finds the value
+        super.setValue(val);
+        encodedValue = null;
     }
 
     /**
@@ -55,4 +109,23 @@ public class MemcachedStorageRecord extends StorageRecord {
     protected void setVersion(@Positive final long version) {
         super.setVersion(version);
     }
+
+    /**
+     * Decodes the encoded value, if any, and releases the buffer that held it. Decoding is done under the lock that
+     * guards {@link #setValue(String)}, so a decoded value never replaces one set concurrently; the volatile write
+     * that releases the buffer publishes the value to readers that skip the lock.
+     */
+    private void decodeValue() {
+        if (encodedValue == null) {
+            return;
+        }
+        synchronized (this) {
+            final byte[] buffer = encodedValue;
+            if (buffer != null) {
+                super.setValue(
+                        new String(buffer, encodedOffset, buffer.length - encodedOffset, StandardCharsets.UTF_8));
+                encodedValue = null;
+            }
+        }
+    }
 }
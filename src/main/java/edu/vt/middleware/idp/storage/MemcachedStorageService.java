@@ -5,32 +5,54 @@
 package edu.vt.middleware.idp.storage;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.component.AbstractIdentifiedInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 import net.spy.memcached.CASResponse;
 import net.spy.memcached.CASValue;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.transcoders.Transcoder;
-import org.cryptacular.util.ByteUtil;
-import org.cryptacular.util.CodecUtil;
-import org.cryptacular.util.HashUtil;
 import org.opensaml.storage.StorageCapabilities;
 import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageSerializer;
@@ -49,7 +71,8 @@ import org.slf4j.LoggerFactory;
  * <p>
  * This storage service supports arbitrary-length context names and keys despite the 250-byte limit on memcached keys.
  * Keys whose length is greater than 250 bytes are hashed using the SHA-512 algorithm and hex encoded to produce a
- * 128-character key that is stored in memcached. Collisions are avoided irrespective of hashing by using the memcached
+ * 128-character key that is stored in memcached; a cheaper {@link #setKeyHasher(KeyHasher) key hasher} producing
+ * shorter keys may be configured instead. Collisions are avoided irrespective of hashing by using the memcached
  * add operation on all create operations which guarantees that an entry is created if and only if a key of the
  * same value does not already exist. Note that context names and keys are assumed to have single-byte encodings in
  * UTF-8 (i.e. ASCII characters) such that key lengths are equal to their size in bytes. Hashed keys naturally meet
@@ -60,9 +83,52 @@ import org.slf4j.LoggerFactory;
  * parameter in the {@link #MemcachedStorageService(net.spy.memcached.MemcachedClient, int, boolean)} constructor.
  * While there is modest performance impact for create and delete operations, the feature limits the number of keys
  * per context. With the default 1M memcached slab size, in the worst case 4180 keys are permitted per context.
- * In many if not most situations the value is easily double that. The limitation can be overcome by increasing the
- * slab size, which decreases overall cache memory consumption efficiency. When key tracking is disabled, there is no
- * limit on the number of keys per context other than overall cache capacity.
+ * In many if not most situations the value is easily double that. The limit applies per list item, so it is
+ * multiplied by spreading each list across several items with {@link #setContextKeyListShards(int)}. The limitation
+ * can also be overcome by increasing the slab size, which decreases overall cache memory consumption efficiency.
+ * When key tracking is disabled, there is no limit on the number of keys per context other than overall cache
+ * capacity.
+ * <p>
+ * An optional local cache of context-namespace mappings avoids a memcached round trip to resolve the namespace
+ * on every operation. The cache is disabled by default and is enabled by setting a positive
+ * {@link #setNamespaceCacheSize(long) cache size}. Since a context deleted on another node remains visible to this
+ * node until the cached mapping expires, the {@link #setNamespaceCacheLifetime(long) cache entry lifetime} should be
+ * kept short where {@link #deleteContext(String)} is used.
+ * <p>
+ * A separate local cache of contexts known not to exist answers reads, updates, and deletes on nonexistent contexts
+ * without contacting memcached. It is also disabled by default and is enabled by setting a positive
+ * {@link #setMissingNamespaceCacheSize(long) cache size}. A context created on another node appears to be missing on
+ * this node for at most the {@link #setMissingNamespaceCacheLifetime(long) cache entry lifetime}; create operations
+ * always bypass this cache.
+ * <p>
+ * Record operations are also available in non-blocking form, e.g. {@link #createAsync(String, String, String, Long)},
+ * which return a {@link CompletableFuture} composed from memcached operation completion listeners. The blocking
+ * {@link StorageService} methods simply wait on the corresponding future for at most the configured operation
+ * timeout, which bounds the whole storage operation rather than each memcached operation. Futures complete when
+ * memcached responds, so callers of the asynchronous methods should likewise bound the time they wait.
+ * <p>
+ * An optional local cache of records answers repeated reads of records in selected contexts without contacting
+ * memcached. It is disabled by default and is enabled by setting a positive {@link #setRecordCacheSize(long) cache
+ * size} and naming the {@link #setRecordCacheContexts(Collection) contexts} whose records may be cached. A cached
+ * record may be served for at most the {@link #setRecordCacheLifetime(long) cache entry lifetime} after it was read,
+ * so changes made by other nodes may go unnoticed for that long; changes made through this instance evict the
+ * affected records, and records past their own expiration are never served. Contexts that require current values,
+ * e.g. a replay cache, must not be named.
+ * <p>
+ * Contexts that never need {@link #deleteContext(String)} may be declared {@link #setFlatContexts(Collection) flat},
+ * in which case their records are stored under keys derived directly from the context name and record key and the
+ * namespace indirection is skipped entirely.
+ * <p>
+ * Alternatively, namespaces may be derived from a per-context {@link #setGenerationNamespaces(boolean) generation
+ * number} kept in a memcached counter, in which case the namespace of a context is known from a single counter read
+ * and {@link #deleteContext(String)} is a single increment of the counter that orphans all existing records.
+ * <p>
+ * Large record values may be compressed by setting a {@link #setCompressionCodec(CompressionCodec) compression
+ * codec}, which is worthwhile for records such as serialized IdP sessions that are several kilobytes in size.
+ * <p>
+ * {@link CASReportingMemcachedClient} should be used where versioned updates are common since it allows
+ * {@link #updateWithVersion(long, String, String, String, Long)} to learn the new record version from the CAS
+ * operation response instead of reading the record again.
  * <p>
  * <strong>Limitations and requirements</strong>
  * <ol>
@@ -84,21 +150,73 @@ public class MemcachedStorageService extends AbstractIdentifiedInitializableComp
     /** Key suffix for entry that contains a list of blacklisted (deleted) context keys. */
     protected static final String CTX_KEY_BLACKLIST_SUFFIX = ":contextKeyBlackList";
 
-    /** Delimiter of items in the context key list. */
-    private static final String CTX_KEY_LIST_DELIMITER = "\n";
+    /** Key suffix for entry that contains a list of context keys in compact format. */
+    protected static final String COMPACT_CTX_KEY_LIST_SUFFIX = ":compactContextKeyList";
+
+    /** Key suffix for entry that contains a list of blacklisted (deleted) context keys in compact format. */
+    protected static final String COMPACT_CTX_KEY_BLACKLIST_SUFFIX = ":compactContextKeyBlackList";
+
+    /** Key suffixes of context key lists in all formats. */
+    private static final List<String> CTX_KEY_LIST_SUFFIXES =
+            Collections.unmodifiableList(Arrays.asList(CTX_KEY_LIST_SUFFIX, COMPACT_CTX_KEY_LIST_SUFFIX));
+
+    /** Key suffixes of context key blacklists in all formats. */
+    private static final List<String> CTX_KEY_BLACKLIST_SUFFIXES =
+            Collections.unmodifiableList(Arrays.asList(CTX_KEY_BLACKLIST_SUFFIX, COMPACT_CTX_KEY_BLACKLIST_SUFFIX));
+
+    /** Default lifetime in seconds of entries in the local namespace cache. */
+    private static final long DEFAULT_NAMESPACE_CACHE_LIFETIME = 60;
+
+    /** Default lifetime in seconds of entries in the local missing namespace cache. */
+    private static final long DEFAULT_MISSING_NAMESPACE_CACHE_LIFETIME = 5;
+
+    /** Prefix of the key prefix of records in flat contexts, which never begins a generated namespace name. */
+    private static final String FLAT_CONTEXT_PREFIX = "~";
+
+    /** Key suffix for the counter item that holds the current generation of a context. */
+    private static final String GENERATION_KEY_SUFFIX = ":generation";
+
+    /** Number of keys whose existence is checked by each multi-get during context key list compaction. */
+    private static final int EXISTENCE_CHECK_SIZE = 100;
 
-    /** Maximum length in bytes of memcached keys. */
-    private static final int MAX_KEY_LENGTH = 250;
+    /** Default maximum number of keys whose existence is checked by one context key list compaction. */
+    private static final int DEFAULT_COMPACTION_BATCH_SIZE = 200;
+
+    /** Default maximum number of touch operations in flight for one context expiration update. */
+    private static final int DEFAULT_CONTEXT_TOUCH_WINDOW = 64;
+
+    /** Default lifetime in seconds of entries in the local record cache. */
+    private static final long DEFAULT_RECORD_CACHE_LIFETIME = 5;
+
+    /** Number of eviction counters of the local record cache, each shared by the keys with the same hash. */
+    private static final int RECORD_CACHE_EPOCH_STRIPES = 64;
+
+    /** Number of creation counters of the local missing namespace cache, each shared by contexts with the same hash. */
+    private static final int MISSING_NAMESPACE_EPOCH_STRIPES = 64;
+
+    /** Default minimum size in bytes of record values that are compressed. */
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 4096;
 
     /** Logger instance. */
     private final Logger logger = LoggerFactory.getLogger(MemcachedStorageService.class);
 
     /** Handles conversion of {@link MemcachedStorageRecord} to bytes and vice versa. */
-    private final Transcoder<MemcachedStorageRecord> storageRecordTranscoder = new StorageRecordTranscoder();
+    private Transcoder<MemcachedStorageRecord> storageRecordTranscoder = new StorageRecordTranscoder();
+
+    /** Codec that compresses large record values; null to store values uncompressed. */
+    @Nullable
+    private CompressionCodec compressionCodec;
+
+    /** Minimum size in bytes of record values that are compressed. */
+    @Positive
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
 
     /** Handles conversion of strings to bytes and vice versa. */
     private final Transcoder<String> stringTranscoder = new StringTranscoder();
 
+    /** Handles context key lists, which are converted to keys by {@link ContextKeyListCodec}. */
+    private final Transcoder<byte[]> byteArrayTranscoder = new ByteArrayTranscoder();
+
     /** Invariant storage capabilities. */
     @Nonnull
     private MemcachedStorageCapabilities capabilities = new MemcachedStorageCapabilities();
@@ -107,13 +225,147 @@ public class MemcachedStorageService extends AbstractIdentifiedInitializableComp
     @Nonnull
     private final MemcachedClient client;
 
-    /** Memcached asynchronous operation timeout in seconds. */
+    /** Storage operation timeout in seconds. */
     @Positive
     private int timeout;
 
+    /** Time in seconds allowed for operations on all the records of a context. */
+    @Positive
+    private int contextOperationTimeout;
+
     /** Flag that controls context key tracking. */
     private boolean trackContextKeys;
 
+    /** Flag that controls whether new context key lists are written in compact format. */
+    private boolean compactContextKeyLists;
+
+    /** Number of items across which each context key list is spread. */
+    @Positive
+    private int contextKeyListShards = 1;
+
+    /** Size in bytes of a context key list item above which the lists are compacted; zero disables compaction. */
+    @NonNegative
+    private int compactionThreshold;
+
+    /** Maximum number of keys whose existence is checked by one context key list compaction. */
+    @Positive
+    private int compactionBatchSize = DEFAULT_COMPACTION_BATCH_SIZE;
+
+    /** Total number of bytes removed from context key lists by compaction. */
+    private final AtomicLong compactionReclaimedBytes = new AtomicLong();
+
+    /** Maximum number of touch operations in flight for one context expiration update. */
+    @Positive
+    private int contextTouchWindow = DEFAULT_CONTEXT_TOUCH_WINDOW;
+
+    /** Number of context expiration touches that have not yet completed. */
+    private final AtomicLong pendingContextTouches = new AtomicLong();
+
+    /** Number of context expiration touches that updated the expiration of a record. */
+    private final AtomicLong completedContextTouches = new AtomicLong();
+
+    /** Number of context expiration touches of records that no longer exist. */
+    private final AtomicLong missedContextTouches = new AtomicLong();
+
+    /** Flag that controls whether deleteContext deletes the tracked records of the context. */
+    private boolean deleteContextRecords;
+
+    /** Number of record deletes by context deletions that have not yet completed. */
+    private final AtomicLong pendingContextDeletes = new AtomicLong();
+
+    /** Number of records deleted by context deletions. */
+    private final AtomicLong completedContextDeletes = new AtomicLong();
+
+    /** Number of record deletes by context deletions of records that no longer exist. */
+    private final AtomicLong missedContextDeletes = new AtomicLong();
+
+    /** Names of contexts whose records are stored without a namespace. */
+    @Nonnull
+    @NonnullElements
+    private Set<String> flatContexts = Collections.emptySet();
+
+    /** Flag that controls whether namespaces are derived from per-context generation counters. */
+    private boolean generationNamespaces;
+
+    /** Produces unique namespace names for new contexts. */
+    @Nonnull
+    private NamespaceGenerator namespaceGenerator = new NamespaceGenerator();
+
+    /** Builds memcached keys from namespaces and record keys. */
+    @Nonnull
+    private MemcachedKeyBuilder keyBuilder = new MemcachedKeyBuilder();
+
+    /** Namespace creations in progress on this node keyed by context name. */
+    private final ConcurrentMap<String, CompletableFuture<String>> pendingNamespaces = new ConcurrentHashMap<>();
+
+    /** Flag that controls whether concurrent reads of the same record share a single memcached operation. */
+    private boolean coalesceReads;
+
+    /** Record reads in progress keyed by memcached key. */
+    private final ConcurrentMap<String, CompletableFuture<MemcachedStorageRecord>> pendingReads =
+            new ConcurrentHashMap<>();
+
+    /** Number of reads that joined a read in progress instead of issuing a memcached operation. */
+    private final AtomicLong coalescedReadCount = new AtomicLong();
+
+    /** Maximum number of context-namespace mappings held locally; zero disables the namespace cache. */
+    @NonNegative
+    private long namespaceCacheSize;
+
+    /** Lifetime in seconds of entries in the local namespace cache. */
+    @Positive
+    private long namespaceCacheLifetime = DEFAULT_NAMESPACE_CACHE_LIFETIME;
+
+    /** Local cache of context-namespace mappings; null when disabled. */
+    @Nullable
+    private Cache<String, String> namespaceCache;
+
+    /** Maximum number of contexts without a namespace held locally; zero disables the missing namespace cache. */
+    @NonNegative
+    private long missingNamespaceCacheSize;
+
+    /** Lifetime in seconds of entries in the local missing namespace cache. */
+    @Positive
+    private long missingNamespaceCacheLifetime = DEFAULT_MISSING_NAMESPACE_CACHE_LIFETIME;
+
+    /** Local cache of contexts for which no namespace exists; null when disabled. */
+    @Nullable
+    private Cache<String, Boolean> missingNamespaceCache;
+
+    /** Counters of namespaces created on this node, which detect creations during lookups of missing contexts. */
+    private final AtomicLongArray missingNamespaceEpochs = new AtomicLongArray(MISSING_NAMESPACE_EPOCH_STRIPES);
+
+    /** Maximum number of records held locally; zero disables the record cache. */
+    @NonNegative
+    private long recordCacheSize;
+
+    /** Lifetime in seconds of entries in the local record cache. */
+    @Positive
+    private long recordCacheLifetime = DEFAULT_RECORD_CACHE_LIFETIME;
+
+    /** Names of contexts whose records may be held in the local record cache. */
+    @Nonnull
+    @NonnullElements
+    private Set<String> recordCacheContexts = Collections.emptySet();
+
+    /** Local cache of records keyed by memcached key; null when disabled. */
+    @Nullable
+    private Cache<String, MemcachedStorageRecord> recordCache;
+
+    /** Counters of evictions from the local record cache, which detect evictions during reads of cached records. */
+    private final AtomicLongArray recordCacheEpochs = new AtomicLongArray(RECORD_CACHE_EPOCH_STRIPES);
+
+    /** Maximum total length in characters of the keys held in the hashed key cache; zero disables the cache. */
+    @NonNegative
+    private long hashedKeyCacheCapacity;
+
+    /**
+     * Local cache of hashed memcached keys keyed by the context name or {@link CompositeKey} they were derived from;
+     * null when disabled.
+     */
+    @Nullable
+    private Cache<Object, String> hashedKeyCache;
+
     /**
      * Creates a new instance.
      *
@@ -121,7 +373,7 @@ public class MemcachedStorageService extends AbstractIdentifiedInitializableComp
      *               i.e. {@link net.spy.memcached.BinaryConnectionFactory}, in order for
      *               {@link #deleteWithVersion(long, String, String)} and {@link #deleteWithVersion(long, Object)}
      *               to work correctly. The binary protocol is recommended for efficiency as well.
-     * @param timeout Memcached operation timeout in seconds.
+     * @param timeout Storage operation timeout in seconds.
      */
     public MemcachedStorageService(@Nonnull final MemcachedClient client, @Positive final int timeout) {
         this(client, timeout, false);
@@ -135,7 +387,7 @@ public class MemcachedStorageService extends AbstractIdentifiedInitializableComp
      *               i.e. {@link net.spy.memcached.BinaryConnectionFactory}, in order for
      *               {@link #deleteWithVersion(long, String, String)} and {@link #deleteWithVersion(long, Object)}
      *               to work correctly. The binary protocol is recommended for efficiency as well.
-     * @param timeout Memcached operation timeout in seconds.
+     * @param timeout Storage operation timeout in seconds.
      * @param enableContextKeyTracking True to enable context key tracking, false otherwise. <strong>NOTE</strong>
      *                                 this flag must be set to <code>true</code> in order for
      *                                 {@link #updateContextExpiration(String, Long)} to work. If that capability is
@@ -150,6 +402,7 @@ public class MemcachedStorageService extends AbstractIdentifiedInitializableComp
         Constraint.isGreaterThan(0, timeout, "Operation timeout must be positive");
         this.client = client;
         this.timeout = timeout;
+        this.contextOperationTimeout = timeout;
         this.trackContextKeys = enableContextKeyTracking;
     }
 
@@ -171,465 +424,2340 @@ public class MemcachedStorageService extends AbstractIdentifiedInitializableComp
         this.capabilities = capabilities;
     }
 
-    @Override
-    public boolean create(@Nonnull @NotEmpty final String context,
-                          @Nonnull @NotEmpty final String key,
-                          @Nonnull @NotEmpty final String value,
-                          @Nullable @Positive final Long expiration) throws IOException {
-        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
-        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
-        Constraint.isNotNull(StringSupport.trimOrNull(value), "Value cannot be null or empty");
-        final MemcachedStorageRecord record = new MemcachedStorageRecord(value, expiration);
-        final int expiry = record.getExpiry();
-        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
-        String namespace = lookupNamespace(context);
-        if (namespace == null) {
-            namespace = createNamespace(context);
-        }
-        final String cacheKey = memcachedKey(namespace, key);
-        this.logger.debug("Creating new entry at {} for context={}, key={}, exp={}", cacheKey, context, key, expiry);
-        final boolean success = handleAsyncResult(this.client.add(cacheKey, expiry, record, storageRecordTranscoder));
-        if (success && trackContextKeys) {
-            logger.debug("Tracking key {} for context {}", cacheKey, context);
-            final boolean result = updateContextKeyList(CTX_KEY_LIST_SUFFIX, namespace, cacheKey);
-            if (!result) {
-                logger.debug("Failed appending {} to list of keys for context {}", cacheKey, context);
-                // Try to clean up record we just created
-                // Cache entry expiration will clean it up regardless
-                handleAsyncResult(this.client.delete(cacheKey));
-            }
-            return result;
-        }
-        return success;
+    /**
+     * Sets the names of contexts whose records are stored without a namespace. The memcached key of a record in a
+     * flat context is derived from the context name and record key alone, so record operations need no namespace
+     * lookup and a create is a single add. {@link #deleteContext(String)} is not supported for flat contexts since
+     * their records cannot be orphaned by dropping a namespace; it is best suited to contexts such as a replay cache
+     * whose records are only ever removed by expiration. Records created in a context before it is made flat, or
+     * vice versa, are not visible afterward.
+     *
+     * @param contexts Context names. None by default.
+     */
+    public void setFlatContexts(@Nonnull @NonnullElements final Collection<String> contexts) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(contexts, "Flat contexts cannot be null");
+        this.flatContexts = new HashSet<>(contexts);
     }
 
-    @Override
-    public boolean create(@Nonnull @NotEmpty final String context,
-                          @Nonnull @NotEmpty final String key,
-                          @Nonnull final Object value,
-                          @Nonnull final StorageSerializer serializer,
-                          @Nullable @Positive final Long expiration) throws IOException {
-        Constraint.isNotNull(serializer, "Serializer cannot be null");
-        return create(context, key, serializer.serialize(value), expiration);
+    /**
+     * Sets whether context namespaces are derived from a generation number kept in a memcached counter per context
+     * instead of being generated and stored as a context-namespace mapping. The namespace of a context is the hash
+     * of the context name computed by the {@link #setKeyHasher(KeyHasher) key hasher} followed by the current
+     * generation, so records are stored under keys of the form <code>hash:generation:key</code>. A context is created
+     * by a single increment of its counter that supplies a default value, and {@link #deleteContext(String)}
+     * increments the counter so that existing records are no longer addressed and simply expire. New counters start
+     * at the current time in milliseconds, which keeps generations increasing even if a counter is evicted from the
+     * cache. Contexts created in one mode are not visible in the other.
+     *
+     * @param enabled True to derive namespaces from generation counters, false to use namespace mappings. False by
+     *                default.
+     */
+    public void setGenerationNamespaces(final boolean enabled) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        this.generationNamespaces = enabled;
     }
 
-    @Override
-    public boolean create(@Nonnull Object value) throws IOException {
-        Constraint.isNotNull(value, "Value cannot be null");
-        return create(
-                AnnotationSupport.getContext(value),
-                AnnotationSupport.getKey(value),
-                AnnotationSupport.getValue(value),
-                AnnotationSupport.getExpiration(value));
+    /**
+     * Sets the codec that compresses large record values. Values whose UTF-8 encoding is at least the
+     * {@link #setCompressionThreshold(int) compression threshold} are compressed unless that does not make them
+     * smaller, which reduces memcached memory and network use for large records such as serialized IdP sessions at
+     * the cost of CPU time. Compressed and uncompressed records are both read regardless of this setting; see
+     * {@link StorageRecordTranscoder} for compatibility with earlier versions.
+     *
+     * @param codec Compression codec, e.g. {@link DeflateCompressionCodec}. Null, the default, disables compression.
+     */
+    public void setCompressionCodec(@Nullable final CompressionCodec codec) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        this.compressionCodec = codec;
     }
 
-    @Override
-    public StorageRecord read(@Nonnull @NotEmpty final String context,
-                              @Nonnull @NotEmpty final String key) throws IOException {
-        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
-        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
-        final String namespace = lookupNamespace(context);
-        if (namespace == null) {
-            this.logger.debug("Namespace for context {} does not exist", context);
-            return null;
-        }
-        final String cacheKey = memcachedKey(namespace, key);
-        this.logger.debug("Reading entry at {} for context={}, key={}", cacheKey, context, key);
-        final CASValue<MemcachedStorageRecord> record;
-        try {
-            record = handleAsyncResult(this.client.asyncGets(cacheKey, storageRecordTranscoder));
-        } catch (RuntimeException e) {
-            throw new IOException("Memcached operation failed", e);
-        }
-        if (record == null) {
-            return null;
-        }
-        record.getValue().setVersion(record.getCas());
-        return record.getValue();
+    /**
+     * Sets the minimum size of record values that are compressed when a {@link #setCompressionCodec(CompressionCodec)
+     * compression codec} is set.
+     *
+     * @param threshold Minimum size in bytes of the UTF-8 encoded value. Default is 4096.
+     */
+    public void setCompressionThreshold(@Positive final int threshold) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThan(0, threshold, "Compression threshold must be positive");
+        this.compressionThreshold = threshold;
     }
 
-    @Override
-    public Object read(@Nonnull final Object value) throws IOException {
-        Constraint.isNotNull(value, "Value cannot be null");
-        return read(AnnotationSupport.getContext(value), AnnotationSupport.getKey(value));
+    /**
+     * Sets the hasher that shortens memcached keys longer than 250 characters. The default SHA-512
+     * {@link DigestKeyHasher} produces 128-character keys and must be kept where items stored under hashed keys by
+     * earlier versions are to remain addressable; a {@link Murmur3KeyHasher} is considerably cheaper and produces
+     * 22-character keys, but is only suitable where long keys are not chosen by untrusted parties. The hasher also
+     * derives the context part of {@link #setGenerationNamespaces(boolean) generation namespaces}.
+     *
+     * @param hasher Key hasher.
+     */
+    public void setKeyHasher(@Nonnull final KeyHasher hasher) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        this.keyBuilder = new MemcachedKeyBuilder(hasher);
     }
 
-    @Override
-    public Pair<Long, StorageRecord> read(@Nonnull @NotEmpty final String context,
-                                           @Nonnull @NotEmpty final String key,
-                                           @Positive final long version) throws IOException {
-        Constraint.isGreaterThan(0, version, "Version must be positive");
-        final StorageRecord record = read(context, key);
-        if (record == null) {
-            return new Pair<>();
-        }
-        final Pair<Long, StorageRecord> result = new Pair<>(record.getVersion(), null);
-        if (version != record.getVersion()) {
-            // Only set the record if it's not the same as the version requested
-            result.setSecond(record);
-        }
-        return result;
+    /**
+     * Sets the generator of namespace names for new contexts. A generator with a node identifier unique to this
+     * service instance, e.g. the host name, may be set to make the origin of namespaces evident; the default
+     * generator produces unique names without one.
+     *
+     * @param generator Namespace generator.
+     */
+    public void setNamespaceGenerator(@Nonnull final NamespaceGenerator generator) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(generator, "Namespace generator cannot be null");
+        this.namespaceGenerator = generator;
     }
 
-    @Override
-    public boolean update(@Nonnull @NotEmpty final String context,
-                          @Nonnull @NotEmpty final String key,
-                          @Nonnull @NotEmpty final String value,
-                          @Nullable @Positive final Long expiration) throws IOException {
-        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
-        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
-        Constraint.isNotNull(StringSupport.trimOrNull(value), "Value cannot be null or empty");
-        final MemcachedStorageRecord record = new MemcachedStorageRecord(value, expiration);
-        final int expiry = record.getExpiry();
-        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
-        final String namespace = lookupNamespace(context);
-        if (namespace == null) {
-            this.logger.debug("Namespace for context {} does not exist", context);
-            return false;
-        }
-        final String cacheKey = memcachedKey(namespace, key);
-        this.logger.debug("Updating entry at {} for context={}, key={}, exp={}", cacheKey, context, key, expiry);
-        return handleAsyncResult(this.client.replace(cacheKey, expiry, record, storageRecordTranscoder));
+    /**
+     * Sets whether new context key-tracking lists are written in the compact binary format of
+     * {@link ContextKeyListCodec} rather than as newline-delimited text. Compact lists are a fraction of the size
+     * of text lists when keys are long and are cheaper to decode in {@link #updateContextExpiration(String, Long)}.
+     * Compact lists are stored under different memcached keys than text lists, so nodes that write different formats
+     * may share a context, and lists in either format are always read. Since earlier versions only read text lists,
+     * this option must only be enabled once every node sharing the cache runs a version that reads compact lists.
+     * Disabled by default.
+     *
+     * @param compact True to write compact context key lists, false to write text lists.
+     */
+    public void setCompactContextKeyLists(final boolean compact) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        this.compactContextKeyLists = compact;
     }
 
-    @Override
-    public boolean update(@Nonnull @NotEmpty final String context,
-                          @Nonnull @NotEmpty final String key,
-                          @Nonnull final Object value,
-                          @Nonnull final StorageSerializer serializer,
-                          @Nullable @Positive final Long expiration) throws IOException {
-        Constraint.isNotNull(serializer, "Serializer cannot be null");
-        return update(context, key, serializer.serialize(value), expiration);
+    /**
+     * Sets the number of memcached items across which each context key-tracking list and blacklist is spread. Each
+     * tracked key is appended to the shard chosen by the hash of the key, so appends to the lists of a busy context
+     * are distributed across memcached servers and each list item stays well below the memcached item size limit.
+     * {@link #updateContextExpiration(String, Long)} fetches all shards in a single multi-get. The first shard is
+     * stored under the same memcached key as an unsharded list, so the default of one shard is compatible with lists
+     * written before sharding was introduced. All nodes sharing the cache must use the same shard count, and changing
+     * it orphans the lists of existing contexts.
+     *
+     * @param shards Number of shards per list. Default is 1.
+     */
+    public void setContextKeyListShards(@Positive final int shards) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThan(0, shards, "Context key list shard count must be positive");
+        this.contextKeyListShards = shards;
     }
 
-    @Override
-    public boolean update(@Nonnull Object value) throws IOException {
-        Constraint.isNotNull(value, "Value cannot be null");
-        return update(
-                AnnotationSupport.getContext(value),
-                AnnotationSupport.getKey(value),
-                AnnotationSupport.getValue(value),
-                AnnotationSupport.getExpiration(value));
+    /**
+     * Sets the time allowed for {@link #updateContextExpiration(String, Long)} to update the expiration of all the
+     * records of a context, and likewise for {@link #deleteContext(String)} to delete them when
+     * {@link #setDeleteContextRecords(boolean) enabled}. The time bounds all the record operations together rather
+     * than each memcached operation.
+     *
+     * @param timeout Context operation timeout in seconds. Defaults to the storage operation timeout.
+     */
+    public void setContextOperationTimeout(@Positive final int timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThan(0, timeout, "Context operation timeout must be positive");
+        this.contextOperationTimeout = timeout;
     }
 
-    @Override
-    public Long updateWithVersion(@Positive final long version,
-                                  @Nonnull @NotEmpty final String context,
-                                  @Nonnull @NotEmpty final String key,
-                                  @Nonnull @NotEmpty final String value,
-                                  @Nullable @Positive final Long expiration)
-            throws IOException, VersionMismatchException {
+    /**
+     * Sets the maximum number of touch operations that {@link #updateContextExpiration(String, Long)} keeps in
+     * flight. A new touch is issued as each one completes, which keeps the expiration update of a large context from
+     * flooding the memcached client operation queue ahead of operations issued by other threads.
+     *
+     * @param window Maximum number of touches in flight per context expiration update. Default is 64.
+     */
+    public void setContextTouchWindow(@Positive final int window) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThan(0, window, "Context touch window must be positive");
+        this.contextTouchWindow = window;
+    }
 
-        Constraint.isGreaterThan(0, version, "Version must be positive");
-        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
-        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
-        Constraint.isNotNull(StringSupport.trimOrNull(value), "Value cannot be null or empty");
-        final MemcachedStorageRecord record = new MemcachedStorageRecord(value, expiration);
-        final int expiry = record.getExpiry();
-        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
-        final String namespace = lookupNamespace(context);
-        if (namespace == null) {
-            this.logger.debug("Namespace for context {} does not exist", context);
-            return null;
-        }
-        final String cacheKey = memcachedKey(namespace, key);
-        this.logger.debug("Updating entry at {} for context={}, key={}, version={}, exp={}",
-                cacheKey, context, key, version, expiry);
-        final CASResponse response = handleAsyncResult(
-                this.client.asyncCAS(cacheKey, version, expiry, record, storageRecordTranscoder));
-        Long newVersion = null;
-        if (CASResponse.OK == response) {
-            final CASValue<MemcachedStorageRecord> newRecord = handleAsyncResult(
-                    this.client.asyncGets(cacheKey, storageRecordTranscoder));
-            if (newRecord != null) {
-                newVersion = newRecord.getCas();
-            }
-        } else if (CASResponse.EXISTS == response) {
-            throw new VersionMismatchException();
-        }
-        return newVersion;
+    /**
+     * Gets the number of touches issued by context expiration updates in progress that have not yet completed.
+     *
+     * @return Number of pending context expiration touches.
+     */
+    public long getPendingContextTouches() {
+        return pendingContextTouches.get();
     }
 
-    @Override
-    public Long updateWithVersion(@Positive final long version,
-                                  @Nonnull @NotEmpty final String context,
-                                  @Nonnull @NotEmpty final String key,
-                                  @Nonnull final Object value,
-                                  @Nonnull final StorageSerializer serializer,
-                                  @Nullable @Positive final Long expiration)
-            throws IOException, VersionMismatchException {
+    /**
+     * Gets the number of touches by context expiration updates that updated the expiration of a record.
+     *
+     * @return Number of completed context expiration touches since this instance was created.
+     */
+    public long getCompletedContextTouches() {
+        return completedContextTouches.get();
+    }
 
-        Constraint.isNotNull(serializer, "Serializer cannot be null");
-        return updateWithVersion(version, context, key, serializer.serialize(value), expiration);
+    /**
+     * Gets the number of touches by context expiration updates of tracked records that no longer exist.
+     *
+     * @return Number of missed context expiration touches since this instance was created.
+     */
+    public long getMissedContextTouches() {
+        return missedContextTouches.get();
     }
 
-    @Override
-    public Long updateWithVersion(@Positive final long version, @Nonnull final Object value)
-            throws IOException, VersionMismatchException {
+    /**
+     * Sets whether {@link #deleteContext(String)} deletes the tracked records of the context, which frees the memory
+     * they occupy immediately rather than when they expire. Record deletes are issued through the same bounded window
+     * as context expiration touches and must complete within the context operation timeout. The option has no effect
+     * unless context key tracking is enabled. Disabled by default.
+     *
+     * @param delete True to delete tracked records when a context is deleted, false otherwise.
+     */
+    public void setDeleteContextRecords(final boolean delete) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        this.deleteContextRecords = delete;
+    }
 
-        Constraint.isNotNull(value, "Value cannot be null");
-        return updateWithVersion(
-                version,
-                AnnotationSupport.getContext(value),
-                AnnotationSupport.getKey(value),
-                AnnotationSupport.getValue(value),
-                AnnotationSupport.getExpiration(value));
+    /**
+     * Gets the number of record deletes issued by context deletions in progress that have not yet completed.
+     *
+     * @return Number of pending context record deletes.
+     */
+    public long getPendingContextDeletes() {
+        return pendingContextDeletes.get();
     }
 
-    @Override
+    /**
+     * Gets the number of records deleted by context deletions.
+     *
+     * @return Number of records deleted by context deletions since this instance was created.
+     */
+    public long getCompletedContextDeletes() {
+        return completedContextDeletes.get();
+    }
+
+    /**
+     * Gets the number of record deletes by context deletions of tracked records that no longer exist.
+     *
+     * @return Number of missed context record deletes since this instance was created.
+     */
+    public long getMissedContextDeletes() {
+        return missedContextDeletes.get();
+    }
+
+    /**
+     * Sets the size of a context key list or blacklist item above which {@link #updateContextExpiration(String, Long)}
+     * compacts the lists of the context by calling {@link #compactContextKeyLists(String)} after updating record
+     * expiration.
+     *
+     * @param threshold Item size in bytes. Zero, the default, disables triggered compaction.
+     */
+    public void setContextKeyListCompactionThreshold(@NonNegative final int threshold) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThanOrEqual(0, threshold, "Compaction threshold must be non-negative");
+        this.compactionThreshold = threshold;
+    }
+
+    /**
+     * Sets the maximum number of keys whose existence is checked by one run of
+     * {@link #compactContextKeyLists(String)}, which bounds the memcached work done per run. Memcached has no
+     * operation that tests for a key without returning its value, so each checked key costs a read of the whole
+     * record, e.g. 200 keys of 20 KB serialized IdP sessions transfer about 4 MB per run.
+     *
+     * @param size Maximum number of keys checked per run. Default is 200.
+     */
+    public void setContextKeyListCompactionBatchSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThan(0, size, "Compaction batch size must be positive");
+        this.compactionBatchSize = size;
+    }
+
+    /**
+     * Gets the total number of bytes removed from context key lists and blacklists by compaction.
+     *
+     * @return Bytes reclaimed by compaction since this instance was created.
+     */
+    public long getContextKeyListCompactionReclaimedBytes() {
+        return compactionReclaimedBytes.get();
+    }
+
+    /**
+     * Sets whether concurrent reads of the same record are coalesced. When enabled, a read of a record for which a
+     * read is already in progress on this node waits for that read instead of issuing another memcached operation,
+     * and all waiters receive the same record and version. A coalesced read may therefore miss a write that
+     * completes while the shared read is in progress. Disabled by default.
+     *
+     * @param coalesce True to coalesce concurrent reads of the same record, false otherwise.
+     */
+    public void setCoalesceReads(final boolean coalesce) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        this.coalesceReads = coalesce;
+    }
+
+    /**
+     * Gets the number of reads that were answered by joining a read of the same record already in progress.
+     *
+     * @return Number of coalesced reads since this instance was created.
+     */
+    public long getCoalescedReadCount() {
+        return coalescedReadCount.get();
+    }
+
+    /**
+     * Sets the maximum number of context-namespace mappings held in the local namespace cache.
+     *
+     * @param size Maximum number of cached mappings. Zero, the default, disables the namespace cache.
+     */
+    public void setNamespaceCacheSize(@NonNegative final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThanOrEqual(0, size, "Namespace cache size must be non-negative");
+        this.namespaceCacheSize = size;
+    }
+
+    /**
+     * Sets the lifetime of entries in the local namespace cache. This is the maximum time a context deleted by
+     * another node remains visible to this node.
+     *
+     * @param lifetime Cache entry lifetime in seconds. Default is 60.
+     */
+    public void setNamespaceCacheLifetime(@Positive final long lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThan(0, lifetime, "Namespace cache lifetime must be positive");
+        this.namespaceCacheLifetime = lifetime;
+    }
+
+    /**
+     * Sets the maximum number of contexts known not to exist that are held in the local missing namespace cache.
+     *
+     * @param size Maximum number of cached contexts. Zero, the default, disables the missing namespace cache.
+     */
+    public void setMissingNamespaceCacheSize(@NonNegative final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThanOrEqual(0, size, "Missing namespace cache size must be non-negative");
+        this.missingNamespaceCacheSize = size;
+    }
+
+    /**
+     * Sets the lifetime of entries in the local missing namespace cache. This is the maximum time a context created
+     * by another node appears to be missing on this node.
+     *
+     * @param lifetime Cache entry lifetime in seconds. Default is 5.
+     */
+    public void setMissingNamespaceCacheLifetime(@Positive final long lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThan(0, lifetime, "Missing namespace cache lifetime must be positive");
+        this.missingNamespaceCacheLifetime = lifetime;
+    }
+
+    /**
+     * Gets statistics on local namespace cache usage. The hit count is the number of namespace lookups that were
+     * answered without a memcached operation.
+     *
+     * @return Namespace cache statistics; all values are zero if the cache is disabled.
+     */
+    @Nonnull
+    public CacheStats getNamespaceCacheStats() {
+        if (namespaceCache == null) {
+            return new CacheStats(0, 0, 0, 0, 0, 0);
+        }
+        return namespaceCache.stats();
+    }
+
+    /**
+     * Gets statistics on local missing namespace cache usage. The hit count is the number of lookups for nonexistent
+     * contexts that were answered without a memcached operation.
+     *
+     * @return Missing namespace cache statistics; all values are zero if the cache is disabled.
+     */
+    @Nonnull
+    public CacheStats getMissingNamespaceCacheStats() {
+        if (missingNamespaceCache == null) {
+            return new CacheStats(0, 0, 0, 0, 0, 0);
+        }
+        return missingNamespaceCache.stats();
+    }
+
+    /**
+     * Sets the maximum number of records held in the local record cache.
+     *
+     * @param size Maximum number of cached records. Zero, the default, disables the record cache.
+     */
+    public void setRecordCacheSize(@NonNegative final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThanOrEqual(0, size, "Record cache size must be non-negative");
+        this.recordCacheSize = size;
+    }
+
+    /**
+     * Sets the lifetime of entries in the local record cache. This is the maximum time a record changed or deleted
+     * by another node may be served from the cache of this node.
+     *
+     * @param lifetime Cache entry lifetime in seconds. Default is 5.
+     */
+    public void setRecordCacheLifetime(@Positive final long lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThan(0, lifetime, "Record cache lifetime must be positive");
+        this.recordCacheLifetime = lifetime;
+    }
+
+    /**
+     * Sets the names of contexts whose records may be held in the local record cache. Records of other contexts
+     * are always read from memcached.
+     *
+     * @param contexts Context names. None by default.
+     */
+    public void setRecordCacheContexts(@Nonnull @NonnullElements final Collection<String> contexts) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isNotNull(contexts, "Record cache contexts cannot be null");
+        this.recordCacheContexts = new HashSet<>(contexts);
+    }
+
+    /**
+     * Gets statistics on local record cache usage. The hit count is the number of record reads that were answered
+     * without a memcached operation.
+     *
+     * @return Record cache statistics; all values are zero if the cache is disabled.
+     */
+    @Nonnull
+    public CacheStats getRecordCacheStats() {
+        if (recordCache == null) {
+            return new CacheStats(0, 0, 0, 0, 0, 0);
+        }
+        return recordCache.stats();
+    }
+
+    /**
+     * Sets the capacity of the local cache of hashed memcached keys. Keys longer than 250 characters, e.g. the
+     * composite keys of IdP session records, are hashed on every operation; the cache maps recently used long keys
+     * to their hashes so that repeated operations on the same record skip hashing. Since long keys are of arbitrary
+     * length, capacity is expressed as the total length of the cached keys rather than a number of entries, which
+     * bounds memory consumption at roughly twice the capacity in bytes plus about 100 bytes per entry. The least
+     * recently used keys are evicted first.
+     *
+     * @param capacity Total length in characters of cached keys and their hashes. Zero, the default, disables the
+     *                 cache.
+     */
+    public void setHashedKeyCacheCapacity(@NonNegative final long capacity) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        Constraint.isGreaterThanOrEqual(0, capacity, "Hashed key cache capacity must be non-negative");
+        this.hashedKeyCacheCapacity = capacity;
+    }
+
+    /**
+     * Gets statistics on local hashed key cache usage. The hit count is the number of long keys that were not
+     * hashed again.
+     *
+     * @return Hashed key cache statistics; all values are zero if the cache is disabled.
+     */
+    @Nonnull
+    public CacheStats getHashedKeyCacheStats() {
+        if (hashedKeyCache == null) {
+            return new CacheStats(0, 0, 0, 0, 0, 0);
+        }
+        return hashedKeyCache.stats();
+    }
+
+    @Override
+    public boolean create(@Nonnull @NotEmpty final String context,
+                          @Nonnull @NotEmpty final String key,
+                          @Nonnull @NotEmpty final String value,
+                          @Nullable @Positive final Long expiration) throws IOException {
+        return await(createAsync(context, key, value, expiration));
+    }
+
+    @Override
+    public boolean create(@Nonnull @NotEmpty final String context,
+                          @Nonnull @NotEmpty final String key,
+                          @Nonnull final Object value,
+                          @Nonnull final StorageSerializer serializer,
+                          @Nullable @Positive final Long expiration) throws IOException {
+        Constraint.isNotNull(serializer, "Serializer cannot be null");
+        return create(context, key, serializer.serialize(value), expiration);
+    }
+
+    @Override
+    public boolean create(@Nonnull Object value) throws IOException {
+        Constraint.isNotNull(value, "Value cannot be null");
+        return create(
+                AnnotationSupport.getContext(value),
+                AnnotationSupport.getKey(value),
+                AnnotationSupport.getValue(value),
+                AnnotationSupport.getExpiration(value));
+    }
+
+    /**
+     * Asynchronous form of {@link #create(String, String, String, Long)}.
+     *
+     * @param context Context name.
+     * @param key Record key.
+     * @param value Record value.
+     * @param expiration Expiration instant in milliseconds, null for infinite expiration.
+     *
+     * @return Future that completes with true if the record was created, false if a record already exists.
+     */
+    @Nonnull
+    public CompletableFuture<Boolean> createAsync(@Nonnull @NotEmpty final String context,
+                                                  @Nonnull @NotEmpty final String key,
+                                                  @Nonnull @NotEmpty final String value,
+                                                  @Nullable @Positive final Long expiration) {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+        Constraint.isNotNull(StringSupport.trimOrNull(value), "Value cannot be null or empty");
+        final MemcachedStorageRecord record = new MemcachedStorageRecord(value, expiration);
+        final int expiry = record.getExpiry();
+        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
+        return resolveNamespace(context).thenCompose(namespace -> {
+            final String cacheKey = memcachedKey(namespace, key);
+            logger.debug("Creating new entry at {} for context={}, key={}, exp={}", cacheKey, context, key, expiry);
+            final CompletableFuture<Boolean> add = evictRecord(
+                    cacheKey, toFuture(client.add(cacheKey, expiry, record, storageRecordTranscoder)));
+            if (!trackContextKeys) {
+                return add;
+            }
+            // Track the key while the record is written; if the add fails because the record exists,
+            // the key is already tracked and the extra list entry is harmless
+            logger.debug("Tracking key {} for context {}", cacheKey, context);
+            final CompletableFuture<Boolean> track = updateContextKeyList(
+                    keyListSuffix(), namespace, Collections.singleton(cacheKey));
+            return add.thenCompose(success -> track.handle((result, error) -> {
+                if (error != null) {
+                    logger.debug("Error appending {} to list of keys for context {}", cacheKey, context, error);
+                    return false;
+                }
+                return result;
+            }).thenCompose(result -> {
+                if (success && !result) {
+                    logger.debug("Failed appending {} to list of keys for context {}", cacheKey, context);
+                    // Try to clean up record we just created
+                    // Cache entry expiration will clean it up regardless
+                    return toFuture(client.delete(cacheKey)).thenApply(deleted -> false);
+                }
+                return CompletableFuture.completedFuture(success);
+            }));
+        });
+    }
+
+    @Override
+    public StorageRecord read(@Nonnull @NotEmpty final String context,
+                              @Nonnull @NotEmpty final String key) throws IOException {
+        return await(readAsync(context, key));
+    }
+
+    @Override
+    public Object read(@Nonnull final Object value) throws IOException {
+        Constraint.isNotNull(value, "Value cannot be null");
+        return read(AnnotationSupport.getContext(value), AnnotationSupport.getKey(value));
+    }
+
+    @Override
+    public Pair<Long, StorageRecord> read(@Nonnull @NotEmpty final String context,
+                                           @Nonnull @NotEmpty final String key,
+                                           @Positive final long version) throws IOException {
+        Constraint.isGreaterThan(0, version, "Version must be positive");
+        final StorageRecord record = read(context, key);
+        if (record == null) {
+            return new Pair<>();
+        }
+        final Pair<Long, StorageRecord> result = new Pair<>(record.getVersion(), null);
+        if (version != record.getVersion()) {
+            // Only set the record if it's not the same as the version requested
+            result.setSecond(record);
+        }
+        return result;
+    }
+
+    /**
+     * Asynchronous form of {@link #read(String, String)}.
+     *
+     * @param context Context name.
+     * @param key Record key.
+     *
+     * @return Future that completes with the record, whose version is the memcached CAS value, or null if no
+     * record exists.
+     */
+    @Nonnull
+    public CompletableFuture<MemcachedStorageRecord> readAsync(@Nonnull @NotEmpty final String context,
+                                                               @Nonnull @NotEmpty final String key) {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+        return lookupNamespace(context).thenCompose(namespace -> {
+            if (namespace == null) {
+                logger.debug("Namespace for context {} does not exist", context);
+                return CompletableFuture.<MemcachedStorageRecord>completedFuture(null);
+            }
+            final String cacheKey = memcachedKey(namespace, key);
+            if (recordCache == null || !recordCacheContexts.contains(context)) {
+                logger.debug("Reading entry at {} for context={}, key={}", cacheKey, context, key);
+                return readRecord(cacheKey);
+            }
+            final MemcachedStorageRecord cached = recordCache.getIfPresent(cacheKey);
+            if (cached != null) {
+                final Long exp = cached.getExpiration();
+                if (exp != null && exp <= System.currentTimeMillis()) {
+                    logger.debug("Cached entry for {} for context={}, key={} has expired", cacheKey, context, key);
+                    recordCache.invalidate(cacheKey);
+                    return CompletableFuture.<MemcachedStorageRecord>completedFuture(null);
+                }
+                logger.debug("Found cached entry for {} for context={}, key={}", cacheKey, context, key);
+                return CompletableFuture.completedFuture(cached);
+            }
+            logger.debug("Reading entry at {} for context={}, key={}", cacheKey, context, key);
+            final int stripe = recordCacheEpochStripe(cacheKey);
+            final long epoch = recordCacheEpochs.get(stripe);
+            return readRecord(cacheKey).thenApply(record -> {
+                if (record != null) {
+                    recordCache.put(cacheKey, record);
+                    // A local write that evicted the record while it was read may have preceded the put
+                    if (recordCacheEpochs.get(stripe) != epoch) {
+                        recordCache.invalidate(cacheKey);
+                    }
+                }
+                return record;
+            });
+        });
+    }
+
+    /**
+     * Reads several records from the same context. The context namespace is resolved once and the record reads are
+     * issued together, so the whole operation costs two memcached round trips irrespective of the number of keys.
+     *
+     * @param context Context name.
+     * @param keys Record keys.
+     *
+     * @return Map of key to record for every key that has a record in the context. The version of each record is
+     * the memcached CAS value.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    @Nonnull
+    public Map<String, MemcachedStorageRecord> readAll(@Nonnull @NotEmpty final String context,
+                                                       @Nonnull @NonnullElements final Collection<String> keys)
+            throws IOException {
+        return await(readAllAsync(context, keys));
+    }
+
+    /**
+     * Asynchronous form of {@link #readAll(String, Collection)}.
+     *
+     * @param context Context name.
+     * @param keys Record keys.
+     *
+     * @return Future that completes with a map of key to record for every key that has a record in the context.
+     */
+    @Nonnull
+    public CompletableFuture<Map<String, MemcachedStorageRecord>> readAllAsync(
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys) {
+        checkKeys(context, keys);
+        return lookupNamespace(context).thenCompose(namespace -> {
+            if (namespace == null) {
+                logger.debug("Namespace for context {} does not exist", context);
+                return CompletableFuture.completedFuture(Collections.<String, MemcachedStorageRecord>emptyMap());
+            }
+            logger.debug("Reading {} entries for context={}", keys.size(), context);
+            // Gets are pipelined on the connection; spymemcached has no bulk operation that provides CAS values
+            final Map<String, CompletableFuture<MemcachedStorageRecord>> reads = new LinkedHashMap<>(keys.size());
+            for (String key : keys) {
+                reads.put(key, toFuture(client.asyncGets(memcachedKey(namespace, key), storageRecordTranscoder))
+                        .thenApply(MemcachedStorageService::versionedRecord));
+            }
+            return allOf(reads).thenApply(records -> {
+                records.values().removeIf(record -> record == null);
+                return records;
+            });
+        });
+    }
+
+    /**
+     * Creates several records in the same context. All add operations are issued before any result is awaited,
+     * and when key tracking is enabled the created keys are appended to the context key list in a single operation.
+     *
+     * @param context Context name.
+     * @param records Map of key to record to create.
+     *
+     * @return Map of key to true if the record was created, false if a record already exists for the key or the
+     * key could not be tracked. The version of each created record is set to its memcached CAS value if reported by
+     * the memcached client, which is the case for the binary protocol.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    @Nonnull
+    public Map<String, Boolean> createAll(@Nonnull @NotEmpty final String context,
+                                          @Nonnull final Map<String, MemcachedStorageRecord> records)
+            throws IOException {
+        return await(createAllAsync(context, records));
+    }
+
+    /**
+     * Asynchronous form of {@link #createAll(String, Map)}.
+     *
+     * @param context Context name.
+     * @param records Map of key to record to create.
+     *
+     * @return Future that completes with a map of key to create operation result.
+     */
+    @Nonnull
+    public CompletableFuture<Map<String, Boolean>> createAllAsync(
+            @Nonnull @NotEmpty final String context, @Nonnull final Map<String, MemcachedStorageRecord> records) {
+        checkRecords(context, records);
+        return resolveNamespace(context).thenCompose(namespace -> {
+            logger.debug("Creating {} entries for context={}", records.size(), context);
+            final Map<String, String> cacheKeys = new LinkedHashMap<>(records.size());
+            final Map<String, CompletableFuture<Boolean>> writes = new LinkedHashMap<>(records.size());
+            for (Map.Entry<String, MemcachedStorageRecord> entry : records.entrySet()) {
+                final String cacheKey = memcachedKey(namespace, entry.getKey());
+                final MemcachedStorageRecord record = entry.getValue();
+                cacheKeys.put(entry.getKey(), cacheKey);
+                writes.put(entry.getKey(), versionedWrite(
+                        client.add(cacheKey, record.getExpiry(), record, storageRecordTranscoder), record));
+            }
+            return evictRecords(cacheKeys.values(), allOf(writes)).thenCompose(results -> {
+                final List<String> created = new ArrayList<>(results.size());
+                for (Map.Entry<String, Boolean> result : results.entrySet()) {
+                    if (result.getValue()) {
+                        created.add(cacheKeys.get(result.getKey()));
+                    }
+                }
+                if (!trackContextKeys || created.isEmpty()) {
+                    return CompletableFuture.completedFuture(results);
+                }
+                logger.debug("Tracking {} keys for context {}", created.size(), context);
+                return updateContextKeyList(keyListSuffix(), namespace, created).thenCompose(tracked -> {
+                    if (tracked) {
+                        return CompletableFuture.completedFuture(results);
+                    }
+                    logger.debug("Failed appending {} keys to list of keys for context {}", created.size(), context);
+                    // Try to clean up records we just created
+                    // Cache entry expiration will clean them up regardless
+                    final List<CompletableFuture<Boolean>> deletes = new ArrayList<>(created.size());
+                    for (String cacheKey : created) {
+                        deletes.add(toFuture(client.delete(cacheKey)));
+                    }
+                    results.replaceAll((key, success) -> false);
+                    return CompletableFuture.allOf(deletes.toArray(new CompletableFuture<?>[deletes.size()]))
+                            .thenApply(v -> results);
+                });
+            });
+        });
+    }
+
+    /**
+     * Updates several records in the same context. All replace operations are issued before any result is awaited.
+     *
+     * @param context Context name.
+     * @param records Map of key to updated record.
+     *
+     * @return Map of key to true if the record was updated, false if no record exists for the key. The version of
+     * each updated record is set to its memcached CAS value if reported by the memcached client, which is the case
+     * for the binary protocol.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    @Nonnull
+    public Map<String, Boolean> updateAll(@Nonnull @NotEmpty final String context,
+                                          @Nonnull final Map<String, MemcachedStorageRecord> records)
+            throws IOException {
+        return await(updateAllAsync(context, records));
+    }
+
+    /**
+     * Asynchronous form of {@link #updateAll(String, Map)}.
+     *
+     * @param context Context name.
+     * @param records Map of key to updated record.
+     *
+     * @return Future that completes with a map of key to update operation result.
+     */
+    @Nonnull
+    public CompletableFuture<Map<String, Boolean>> updateAllAsync(
+            @Nonnull @NotEmpty final String context, @Nonnull final Map<String, MemcachedStorageRecord> records) {
+        checkRecords(context, records);
+        return lookupNamespace(context).thenCompose(namespace -> {
+            final Map<String, CompletableFuture<Boolean>> writes = new LinkedHashMap<>(records.size());
+            if (namespace == null) {
+                logger.debug("Namespace for context {} does not exist", context);
+                for (String key : records.keySet()) {
+                    writes.put(key, CompletableFuture.completedFuture(false));
+                }
+                return allOf(writes);
+            }
+            logger.debug("Updating {} entries for context={}", records.size(), context);
+            final List<String> cacheKeys = new ArrayList<>(records.size());
+            for (Map.Entry<String, MemcachedStorageRecord> entry : records.entrySet()) {
+                final String cacheKey = memcachedKey(namespace, entry.getKey());
+                final MemcachedStorageRecord record = entry.getValue();
+                cacheKeys.add(cacheKey);
+                writes.put(entry.getKey(), versionedWrite(
+                        client.replace(cacheKey, record.getExpiry(), record, storageRecordTranscoder), record));
+            }
+            return evictRecords(cacheKeys, allOf(writes));
+        });
+    }
+
+    /**
+     * Deletes several records from the same context. All delete operations are issued before any result is awaited,
+     * and when key tracking is enabled the deleted keys are blacklisted in a single operation.
+     *
+     * @param context Context name.
+     * @param keys Keys of records to delete.
+     *
+     * @return Map of key to true if the record was deleted, false if no record exists for the key.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    @Nonnull
+    public Map<String, Boolean> deleteAll(@Nonnull @NotEmpty final String context,
+                                          @Nonnull @NonnullElements final Collection<String> keys)
+            throws IOException {
+        return await(deleteAllAsync(context, keys));
+    }
+
+    /**
+     * Asynchronous form of {@link #deleteAll(String, Collection)}.
+     *
+     * @param context Context name.
+     * @param keys Keys of records to delete.
+     *
+     * @return Future that completes with a map of key to delete operation result.
+     */
+    @Nonnull
+    public CompletableFuture<Map<String, Boolean>> deleteAllAsync(
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys) {
+        checkKeys(context, keys);
+        return lookupNamespace(context).thenCompose(namespace -> {
+            final Map<String, CompletableFuture<Boolean>> deletes = new LinkedHashMap<>(keys.size());
+            if (namespace == null) {
+                logger.debug("Namespace for context {} does not exist", context);
+                for (String key : keys) {
+                    deletes.put(key, CompletableFuture.completedFuture(false));
+                }
+                return allOf(deletes);
+            }
+            logger.debug("Deleting {} entries for context={}", keys.size(), context);
+            final Map<String, String> cacheKeys = new LinkedHashMap<>(keys.size());
+            for (String key : keys) {
+                final String cacheKey = memcachedKey(namespace, key);
+                cacheKeys.put(key, cacheKey);
+                deletes.put(key, toFuture(client.delete(cacheKey)));
+            }
+            return evictRecords(cacheKeys.values(), allOf(deletes)).thenCompose(results -> {
+                final List<String> deleted = new ArrayList<>(results.size());
+                for (Map.Entry<String, Boolean> result : results.entrySet()) {
+                    if (result.getValue()) {
+                        deleted.add(cacheKeys.get(result.getKey()));
+                    }
+                }
+                if (!trackContextKeys || deleted.isEmpty()) {
+                    return CompletableFuture.completedFuture(results);
+                }
+                logger.debug("Blacklisting {} keys for context {}", deleted.size(), context);
+                return updateContextKeyList(blacklistSuffix(), namespace, deleted).thenApply(blacklisted -> {
+                    if (!blacklisted) {
+                        logger.debug("Failed appending {} keys to list of blacklisted keys for context {}",
+                                deleted.size(), context);
+                    }
+                    return results;
+                });
+            });
+        });
+    }
+
+    @Override
+    public boolean update(@Nonnull @NotEmpty final String context,
+                          @Nonnull @NotEmpty final String key,
+                          @Nonnull @NotEmpty final String value,
+                          @Nullable @Positive final Long expiration) throws IOException {
+        return await(updateAsync(context, key, value, expiration));
+    }
+
+    @Override
+    public boolean update(@Nonnull @NotEmpty final String context,
+                          @Nonnull @NotEmpty final String key,
+                          @Nonnull final Object value,
+                          @Nonnull final StorageSerializer serializer,
+                          @Nullable @Positive final Long expiration) throws IOException {
+        Constraint.isNotNull(serializer, "Serializer cannot be null");
+        return update(context, key, serializer.serialize(value), expiration);
+    }
+
+    @Override
+    public boolean update(@Nonnull Object value) throws IOException {
+        Constraint.isNotNull(value, "Value cannot be null");
+        return update(
+                AnnotationSupport.getContext(value),
+                AnnotationSupport.getKey(value),
+                AnnotationSupport.getValue(value),
+                AnnotationSupport.getExpiration(value));
+    }
+
+    /**
+     * Asynchronous form of {@link #update(String, String, String, Long)}.
+     *
+     * @param context Context name.
+     * @param key Record key.
+     * @param value Record value.
+     * @param expiration Expiration instant in milliseconds, null for infinite expiration.
+     *
+     * @return Future that completes with true if the record was updated, false if no record exists.
+     */
+    @Nonnull
+    public CompletableFuture<Boolean> updateAsync(@Nonnull @NotEmpty final String context,
+                                                  @Nonnull @NotEmpty final String key,
+                                                  @Nonnull @NotEmpty final String value,
+                                                  @Nullable @Positive final Long expiration) {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+        Constraint.isNotNull(StringSupport.trimOrNull(value), "Value cannot be null or empty");
+        final MemcachedStorageRecord record = new MemcachedStorageRecord(value, expiration);
+        final int expiry = record.getExpiry();
+        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
+        return lookupNamespace(context).thenCompose(namespace -> {
+            if (namespace == null) {
+                logger.debug("Namespace for context {} does not exist", context);
+                return CompletableFuture.completedFuture(false);
+            }
+            final String cacheKey = memcachedKey(namespace, key);
+            logger.debug("Updating entry at {} for context={}, key={}, exp={}", cacheKey, context, key, expiry);
+            return evictRecord(cacheKey, toFuture(client.replace(cacheKey, expiry, record, storageRecordTranscoder)));
+        });
+    }
+
+    @Override
+    public Long updateWithVersion(@Positive final long version,
+                                  @Nonnull @NotEmpty final String context,
+                                  @Nonnull @NotEmpty final String key,
+                                  @Nonnull @NotEmpty final String value,
+                                  @Nullable @Positive final Long expiration)
+            throws IOException, VersionMismatchException {
+
+        try {
+            return await(updateWithVersionAsync(version, context, key, value, expiration));
+        } catch (IOException e) {
+            if (e.getCause() instanceof VersionMismatchException) {
+                throw (VersionMismatchException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Long updateWithVersion(@Positive final long version,
+                                  @Nonnull @NotEmpty final String context,
+                                  @Nonnull @NotEmpty final String key,
+                                  @Nonnull final Object value,
+                                  @Nonnull final StorageSerializer serializer,
+                                  @Nullable @Positive final Long expiration)
+            throws IOException, VersionMismatchException {
+
+        Constraint.isNotNull(serializer, "Serializer cannot be null");
+        return updateWithVersion(version, context, key, serializer.serialize(value), expiration);
+    }
+
+    @Override
+    public Long updateWithVersion(@Positive final long version, @Nonnull final Object value)
+            throws IOException, VersionMismatchException {
+
+        Constraint.isNotNull(value, "Value cannot be null");
+        return updateWithVersion(
+                version,
+                AnnotationSupport.getContext(value),
+                AnnotationSupport.getKey(value),
+                AnnotationSupport.getValue(value),
+                AnnotationSupport.getExpiration(value));
+    }
+
+    /**
+     * Asynchronous form of {@link #updateWithVersion(long, String, String, String, Long)}.
+     *
+     * @param version Record version that must match the current version for the update to proceed.
+     * @param context Context name.
+     * @param key Record key.
+     * @param value Record value.
+     * @param expiration Expiration instant in milliseconds, null for infinite expiration.
+     *
+     * @return Future that completes with the new record version or null if no record exists. The future completes
+     * exceptionally with {@link VersionMismatchException} if the current record version does not match.
+     */
+    @Nonnull
+    public CompletableFuture<Long> updateWithVersionAsync(@Positive final long version,
+                                                          @Nonnull @NotEmpty final String context,
+                                                          @Nonnull @NotEmpty final String key,
+                                                          @Nonnull @NotEmpty final String value,
+                                                          @Nullable @Positive final Long expiration) {
+        Constraint.isGreaterThan(0, version, "Version must be positive");
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+        Constraint.isNotNull(StringSupport.trimOrNull(value), "Value cannot be null or empty");
+        final MemcachedStorageRecord record = new MemcachedStorageRecord(value, expiration);
+        final int expiry = record.getExpiry();
+        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
+        return lookupNamespace(context).thenCompose(namespace -> {
+            if (namespace == null) {
+                logger.debug("Namespace for context {} does not exist", context);
+                return CompletableFuture.<Long>completedFuture(null);
+            }
+            final String cacheKey = memcachedKey(namespace, key);
+            logger.debug("Updating entry at {} for context={}, key={}, version={}, exp={}",
+                    cacheKey, context, key, version, expiry);
+            final OperationFuture<CASResponse> operation = client.asyncCAS(
+                    cacheKey, version, expiry, record, storageRecordTranscoder);
+            return evictRecord(cacheKey, toFuture(operation)).thenCompose(response -> {
+                if (CASResponse.OK == response) {
+                    final Long newVersion = reportedCas(operation);
+                    if (newVersion != null) {
+                        return CompletableFuture.completedFuture(newVersion);
+                    }
+                    // Client did not report the new CAS value so read it back
+                    return toFuture(client.asyncGets(cacheKey, storageRecordTranscoder))
+                            .thenApply(newRecord -> newRecord == null ? null : newRecord.getCas());
+                } else if (CASResponse.EXISTS == response) {
+                    throw new CompletionException(new VersionMismatchException());
+                }
+                return CompletableFuture.<Long>completedFuture(null);
+            });
+        });
+    }
+
+    @Override
     public boolean updateExpiration(@Nonnull @NotEmpty final String context,
                                     @Nonnull @NotEmpty final String key,
                                     @Nullable @Positive final Long expiration) throws IOException {
+        return await(updateExpirationAsync(context, key, expiration));
+    }
+
+    @Override
+    public boolean updateExpiration(@Nonnull final Object value) throws IOException {
+        Constraint.isNotNull(value, "Value cannot be null");
+        return updateExpiration(
+                AnnotationSupport.getContext(value),
+                AnnotationSupport.getKey(value),
+                AnnotationSupport.getExpiration(value));
+    }
+
+    /**
+     * Asynchronous form of {@link #updateExpiration(String, String, Long)}.
+     *
+     * @param context Context name.
+     * @param key Record key.
+     * @param expiration Expiration instant in milliseconds, null for infinite expiration.
+     *
+     * @return Future that completes with true if the record expiration was updated, false if no record exists.
+     */
+    @Nonnull
+    public CompletableFuture<Boolean> updateExpirationAsync(@Nonnull @NotEmpty final String context,
+                                                            @Nonnull @NotEmpty final String key,
+                                                            @Nullable @Positive final Long expiration) {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+        final int expiry = MemcachedStorageRecord.expiry(expiration);
+        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
+        return lookupNamespace(context).thenCompose(namespace -> {
+            if (namespace == null) {
+                logger.debug("Namespace for context {} does not exist", context);
+                return CompletableFuture.completedFuture(false);
+            }
+            final String cacheKey = memcachedKey(namespace, key);
+            logger.debug("Updating expiration for entry at {} for context={}, key={}", cacheKey, context, key);
+            return evictRecord(cacheKey, toFuture(client.touch(cacheKey, expiry)));
+        });
+    }
+
+    @Override
+    public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException {
+        return await(deleteAsync(context, key));
+    }
+
+    @Override
+    public boolean delete(@Nonnull final Object value) throws IOException {
+        Constraint.isNotNull(value, "Value cannot be null");
+        return delete(
+                AnnotationSupport.getContext(value),
+                AnnotationSupport.getKey(value));
+    }
+
+    @Override
+    public boolean deleteWithVersion(@Positive final long version,
+                                     @Nonnull @NotEmpty final String context,
+                                     @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
+        return await(deleteWithVersionAsync(version, context, key));
+    }
+
+    @Override
+    public boolean deleteWithVersion(@Positive final long version, @Nonnull final Object value)
+            throws IOException, VersionMismatchException {
+
+        Constraint.isNotNull(value, "Value cannot be null");
+        return deleteWithVersion(
+                version,
+                AnnotationSupport.getContext(value),
+                AnnotationSupport.getKey(value));
+    }
+
+    /**
+     * Asynchronous form of {@link #delete(String, String)}.
+     *
+     * @param context Context name.
+     * @param key Record key.
+     *
+     * @return Future that completes with true if the record was deleted, false if no record exists.
+     */
+    @Nonnull
+    public CompletableFuture<Boolean> deleteAsync(@Nonnull @NotEmpty final String context,
+                                                  @Nonnull @NotEmpty final String key) {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+        return lookupNamespace(context).thenCompose(namespace -> {
+            if (namespace == null) {
+                logger.debug("Namespace for context {} does not exist", context);
+                return CompletableFuture.completedFuture(false);
+            }
+            final String cacheKey = memcachedKey(namespace, key);
+            logger.debug("Deleting entry at {} for context={}, key={}", cacheKey, context, key);
+            return blacklistAfterDelete(
+                    evictRecord(cacheKey, toFuture(client.delete(cacheKey))), context, namespace, cacheKey);
+        });
+    }
+
+    /**
+     * Asynchronous form of {@link #deleteWithVersion(long, String, String)}.
+     *
+     * @param version Record version that must match the current version for the delete to proceed.
+     * @param context Context name.
+     * @param key Record key.
+     *
+     * @return Future that completes with true if the record was deleted, false if no record exists or the current
+     * record version does not match.
+     */
+    @Nonnull
+    public CompletableFuture<Boolean> deleteWithVersionAsync(@Positive final long version,
+                                                             @Nonnull @NotEmpty final String context,
+                                                             @Nonnull @NotEmpty final String key) {
+        Constraint.isGreaterThan(0, version, "Version must be positive");
         Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
         Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
+        return lookupNamespace(context).thenCompose(namespace -> {
+            if (namespace == null) {
+                logger.debug("Namespace for context {} does not exist", context);
+                return CompletableFuture.completedFuture(false);
+            }
+            final String cacheKey = memcachedKey(namespace, key);
+            logger.debug("Deleting entry at {} for context={}, key={}, version={}", cacheKey, context, key, version);
+            return blacklistAfterDelete(
+                    evictRecord(cacheKey, toFuture(client.delete(cacheKey, version))), context, namespace, cacheKey);
+        });
+    }
+
+    /**
+     * Memcached expires records itself, so reaping only applies to context key tracking, where it removes the keys of
+     * records that no longer exist from the context key lists by calling {@link #compactContextKeyLists(String)}. The
+     * work done per call is bounded by the {@link #setContextKeyListCompactionBatchSize(int) compaction batch size},
+     * so periodic calls work through large lists over several runs. This method does nothing if context key tracking
+     * is disabled.
+     *
+     * @param context Context name.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    @Override
+    public void reap(@Nonnull @NotEmpty final String context) throws IOException {
+        if (trackContextKeys) {
+            compactContextKeyLists(context);
+        }
+    }
+
+    @Override
+    public void updateContextExpiration(@Nonnull @NotEmpty final String context, @Nullable final Long expiration)
+            throws IOException {
+        if (!trackContextKeys) {
+            throw new UnsupportedOperationException(
+                    "updateContextExpiration not supported when trackContextKeys == false");
+        }
         final int expiry = MemcachedStorageRecord.expiry(expiration);
         Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
-        final String namespace = lookupNamespace(context);
+        final String namespace = await(lookupNamespace(context));
+        if (namespace ==  null) {
+            logger.debug("Cannot update context expiration since context namespace does not exist");
+            return;
+        }
+        final Map<String, byte[]> lists = readContextKeyLists(namespace);
+        final Set<String> keySet = trackedKeys(namespace, lists);
+        if (keySet.isEmpty()) {
+            logger.debug("No context keys found to update expiration");
+            return;
+        }
+        applyToAll("Expiration update", context, keySet, key -> client.touch(key, expiry),
+                pendingContextTouches, completedContextTouches, missedContextTouches);
+        invalidateRecords(keySet);
+        if (compactionThreshold > 0) {
+            for (byte[] list : lists.values()) {
+                if (list.length > compactionThreshold) {
+                    logger.debug("Compacting key lists for context {} since they exceed {} bytes",
+                            context, compactionThreshold);
+                    compactContextKeyLists(context);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compacts the context key lists and blacklists of a context in both list formats. Blacklisted keys, duplicates,
+     * and keys whose records no longer exist are removed from each key list, which is rewritten in its own format
+     * using a CAS operation if any key was removed, and the blacklists are then deleted using CAS operations. A list
+     * changed by another operation while it is compacted is left as is until the next run. At most
+     * {@link #setContextKeyListCompactionBatchSize(int) batch size} keys are checked for existence per run, starting
+     * at a random position in each list so that successive runs check every key over time. The existence check reads
+     * the records, so its cost grows with record size as well as the batch size.
+     *
+     * @param context Context name.
+     *
+     * @return Number of bytes removed from the lists of the context.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    public long compactContextKeyLists(@Nonnull @NotEmpty final String context) throws IOException {
+        if (!trackContextKeys) {
+            throw new UnsupportedOperationException(
+                    "compactContextKeyLists not supported when trackContextKeys == false");
+        }
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        final String namespace = await(lookupNamespace(context));
+        if (namespace == null) {
+            logger.debug("Cannot compact context key lists since context namespace does not exist");
+            return 0;
+        }
+        long reclaimed = 0;
+        int budget = compactionBatchSize;
+        for (int shard = 0; shard < contextKeyListShards; shard++) {
+            final Map<String, OperationFuture<CASValue<byte[]>>> listResults = new LinkedHashMap<>();
+            for (String suffix : CTX_KEY_LIST_SUFFIXES) {
+                final String listKey = contextKeyListKey(suffix, namespace, shard);
+                listResults.put(listKey, client.asyncGets(listKey, byteArrayTranscoder));
+            }
+            final Map<String, OperationFuture<CASValue<byte[]>>> blacklistResults = new LinkedHashMap<>();
+            for (String suffix : CTX_KEY_BLACKLIST_SUFFIXES) {
+                final String blacklistKey = contextKeyListKey(suffix, namespace, shard);
+                blacklistResults.put(blacklistKey, client.asyncGets(blacklistKey, byteArrayTranscoder));
+            }
+            // Keys are blacklisted in the format of the deleting node, which may differ from that of the key list
+            final Map<String, CASValue<byte[]>> blacklists = new LinkedHashMap<>();
+            final Set<String> blacklisted = new HashSet<>();
+            for (Map.Entry<String, OperationFuture<CASValue<byte[]>>> entry : blacklistResults.entrySet()) {
+                final CASValue<byte[]> blacklist = handleAsyncResult(entry.getValue());
+                if (blacklist != null) {
+                    blacklists.put(entry.getKey(), blacklist);
+                    ContextKeyListCodec.decode(namespace, blacklist.getValue(), blacklisted::add);
+                }
+            }
+            boolean allRewritten = true;
+            for (Map.Entry<String, OperationFuture<CASValue<byte[]>>> entry : listResults.entrySet()) {
+                final String listKey = entry.getKey();
+                final CASValue<byte[]> list = handleAsyncResult(entry.getValue());
+                if (list == null) {
+                    continue;
+                }
+                final List<String> entries = new ArrayList<>();
+                ContextKeyListCodec.decode(namespace, list.getValue(), entries::add);
+                final Set<String> keys = new LinkedHashSet<>(entries);
+                keys.removeAll(blacklisted);
+                // Check a window of keys starting at a random position so that successive runs check every key
+                final List<String> candidates = new ArrayList<>(keys);
+                final List<String> checked = new ArrayList<>(Math.min(budget, candidates.size()));
+                final int start = candidates.isEmpty() ? 0 : ThreadLocalRandom.current().nextInt(candidates.size());
+                for (int i = 0; i < candidates.size() && checked.size() < budget; i++) {
+                    checked.add(candidates.get((start + i) % candidates.size()));
+                }
+                budget -= checked.size();
+                // Check existence in modest multi-gets to avoid monopolizing connections used by other requests
+                for (int i = 0; i < checked.size(); i += EXISTENCE_CHECK_SIZE) {
+                    final List<String> batch = checked.subList(i, Math.min(i + EXISTENCE_CHECK_SIZE, checked.size()));
+                    final Map<String, byte[]> existing = await(
+                            toFuture(client.asyncGetBulk(batch, byteArrayTranscoder)));
+                    for (String key : batch) {
+                        if (!existing.containsKey(key)) {
+                            keys.remove(key);
+                        }
+                    }
+                }
+                if (keys.size() == entries.size()) {
+                    logger.debug("Key list {} is already compact", listKey);
+                    continue;
+                }
+                final byte[] compacted = ContextKeyListCodec.encode(
+                        namespace, keys, ContextKeyListCodec.isCompact(list.getValue()), true);
+                final boolean rewritten;
+                if (keys.isEmpty()) {
+                    rewritten = handleAsyncResult(client.delete(listKey, list.getCas()));
+                } else {
+                    rewritten = CASResponse.OK == handleAsyncResult(
+                            client.asyncCAS(listKey, list.getCas(), 0, compacted, byteArrayTranscoder));
+                }
+                if (!rewritten) {
+                    logger.debug("Key list {} changed during compaction", listKey);
+                    allRewritten = false;
+                    continue;
+                }
+                reclaimed += list.getValue().length - (keys.isEmpty() ? 0 : compacted.length);
+            }
+            if (!allRewritten) {
+                continue;
+            }
+            // Blacklisted keys are no longer in the lists, so the blacklists can go unless they have grown meanwhile
+            for (Map.Entry<String, CASValue<byte[]>> entry : blacklists.entrySet()) {
+                if (handleAsyncResult(client.delete(entry.getKey(), entry.getValue().getCas()))) {
+                    reclaimed += entry.getValue().getValue().length;
+                }
+            }
+        }
+        logger.debug("Compaction of key lists for context {} reclaimed {} bytes", context, reclaimed);
+        compactionReclaimedBytes.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    @Override
+    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
+        if (flatContexts.contains(context)) {
+            throw new UnsupportedOperationException("deleteContext not supported for flat context " + context);
+        }
+        final String namespace = await(lookupNamespace(context));
         if (namespace == null) {
-            this.logger.debug("Namespace for context {} does not exist", context);
-            return false;
+            this.logger.debug("Namespace for context {} does not exist. Context values effectively deleted.", context);
+            return;
+        }
+        if (namespaceCache != null) {
+            namespaceCache.invalidate(context);
+        }
+        if (trackContextKeys && deleteContextRecords) {
+            final Set<String> keySet = trackedKeys(namespace, readContextKeyLists(namespace));
+            applyToAll("Record deletion", context, keySet, client::delete,
+                    pendingContextDeletes, completedContextDeletes, missedContextDeletes);
+            invalidateRecords(keySet);
+        }
+        if (generationNamespaces) {
+            // Moving to the next generation orphans all records; only the key lists of the old one need removal
+            final OperationFuture<Long> genResult =
+                    this.client.asyncIncr(generationKey(generationContextId(context)), 1L);
+            if (trackContextKeys) {
+                deleteContextKeyLists(namespace);
+            }
+            handleAsyncResult(genResult);
+            return;
+        }
+        final OperationFuture<Boolean> ctxResult = this.client.delete(memcachedKey(context));
+        final OperationFuture<Boolean> nsResult = this.client.delete(namespace);
+        if (trackContextKeys) {
+            deleteContextKeyLists(namespace);
+        }
+        handleAsyncResult(ctxResult);
+        handleAsyncResult(nsResult);
+    }
+
+    /**
+     * Deletes all shards of the key list and blacklist of a context.
+     *
+     * @param namespace Context namespace.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    private void deleteContextKeyLists(final String namespace) throws IOException {
+        final List<OperationFuture<Boolean>> listResults = new ArrayList<>(4 * contextKeyListShards);
+        for (String listKey : contextKeyListKeys(CTX_KEY_LIST_SUFFIXES, namespace)) {
+            listResults.add(this.client.delete(listKey));
+        }
+        for (String listKey : contextKeyListKeys(CTX_KEY_BLACKLIST_SUFFIXES, namespace)) {
+            listResults.add(this.client.delete(listKey));
+        }
+        for (OperationFuture<Boolean> listResult : listResults) {
+            handleAsyncResult(listResult);
+        }
+    }
+
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (namespaceCacheSize > 0) {
+            namespaceCache = CacheBuilder.newBuilder()
+                    .maximumSize(namespaceCacheSize)
+                    .expireAfterWrite(namespaceCacheLifetime, TimeUnit.SECONDS)
+                    .recordStats()
+                    .build();
+        }
+        if (missingNamespaceCacheSize > 0) {
+            missingNamespaceCache = CacheBuilder.newBuilder()
+                    .maximumSize(missingNamespaceCacheSize)
+                    .expireAfterWrite(missingNamespaceCacheLifetime, TimeUnit.SECONDS)
+                    .recordStats()
+                    .build();
+        }
+        if (recordCacheSize > 0) {
+            recordCache = CacheBuilder.newBuilder()
+                    .maximumSize(recordCacheSize)
+                    .expireAfterWrite(recordCacheLifetime, TimeUnit.SECONDS)
+                    .recordStats()
+                    .build();
+        }
+        if (compressionCodec != null) {
+            storageRecordTranscoder = new StorageRecordTranscoder(compressionCodec, compressionThreshold);
+        }
+        if (hashedKeyCacheCapacity > 0) {
+            hashedKeyCache = CacheBuilder.newBuilder()
+                    .maximumWeight(hashedKeyCacheCapacity)
+                    .weigher(MemcachedStorageService::hashedKeyWeight)
+                    .recordStats()
+                    .build();
+        }
+    }
+
+    @Override
+    protected void doDestroy() {
+        client.shutdown();
+    }
+
+
+    /**
+     * Looks up the namespace for the given context name, consulting the local namespace cache if enabled before
+     * falling back to memcached.
+     *
+     * @param context Context name.
+     *
+     * @return Future that completes with the namespace for given context or null if no namespace exists for context.
+     */
+    @Nonnull
+    protected CompletableFuture<String> lookupNamespace(final String context) {
+        return lookupNamespace(context, true);
+    }
+
+    /**
+     * Creates a cache-wide unique namespace for the given context name. The context-namespace mapping is stored
+     * in the cache. Concurrent calls for the same context on this node share a single creation, and if another node
+     * creates the context first its namespace is adopted.
+     *
+     * @param context Context name.
+     *
+     * @return Future that completes with the namespace name for given context.
+     */
+    @Nonnull
+    protected CompletableFuture<String> createNamespace(final String context) {
+        final CompletableFuture<String> created = new CompletableFuture<>();
+        final CompletableFuture<String> pending = pendingNamespaces.putIfAbsent(context, created);
+        if (pending != null) {
+            logger.debug("Awaiting namespace creation in progress for context {}", context);
+            return pending;
+        }
+        final CompletableFuture<String> creation;
+        try {
+            creation = generationNamespaces ? createGeneration(context) : createNamespaceMapping(context);
+        } catch (RuntimeException e) {
+            // The client rejected the operation, e.g. since its queue is full, so no listener will clean up
+            pendingNamespaces.remove(context, created);
+            complete(created, null, new IOException("Memcached operation failed", e));
+            return created;
+        }
+        creation.whenComplete((namespace, error) -> {
+            pendingNamespaces.remove(context, created);
+            complete(created, namespace, error);
+        });
+        return created;
+    }
+
+    /**
+     * Looks up the namespace for the given context name and creates it if it does not exist.
+     *
+     * @param context Context name.
+     *
+     * @return Future that completes with the namespace for given context.
+     */
+    private CompletableFuture<String> resolveNamespace(final String context) {
+        return lookupNamespace(context, false).thenCompose(namespace -> {
+            if (namespace == null) {
+                return createNamespace(context);
+            }
+            return CompletableFuture.completedFuture(namespace);
+        });
+    }
+
+    /**
+     * Looks up the namespace for the given context name.
+     *
+     * @param context Context name.
+     * @param useMissingCache True to answer from the local missing namespace cache if possible, false to always
+     *                        confirm with memcached that no namespace exists.
+     *
+     * @return Future that completes with the namespace for given context or null if no namespace exists for context.
+     */
+    private CompletableFuture<String> lookupNamespace(final String context, final boolean useMissingCache) {
+        if (flatContexts.contains(context)) {
+            return CompletableFuture.completedFuture(FLAT_CONTEXT_PREFIX + context);
+        }
+        if (namespaceCache != null) {
+            final String namespace = namespaceCache.getIfPresent(context);
+            if (namespace != null) {
+                return CompletableFuture.completedFuture(namespace);
+            }
+        }
+        if (useMissingCache && missingNamespaceCache != null && missingNamespaceCache.getIfPresent(context) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final String contextId = generationNamespaces ? generationContextId(context) : null;
+        final String lookupKey = generationNamespaces ? generationKey(contextId) : memcachedKey(context);
+        final int stripe = missingNamespaceEpochStripe(context);
+        final long epoch = missingNamespaceEpochs.get(stripe);
+        final OperationFuture<CASValue<String>> operation;
+        try {
+            operation = client.asyncGets(lookupKey, stringTranscoder);
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+        return toFuture(operation).thenApply(result -> {
+            if (result == null) {
+                if (missingNamespaceCache != null) {
+                    missingNamespaceCache.put(context, Boolean.TRUE);
+                    // A local creation of the namespace while it was looked up may have preceded the put
+                    if (missingNamespaceEpochs.get(stripe) != epoch) {
+                        missingNamespaceCache.invalidate(context);
+                    }
+                }
+                return null;
+            }
+            final String namespace = generationNamespaces
+                    ? generationNamespace(contextId, Long.parseLong(result.getValue().trim())) : result.getValue();
+            if (namespaceCache != null) {
+                namespaceCache.put(context, namespace);
+            }
+            return namespace;
+        });
+    }
+
+    /**
+     * Creates the generation counter of a context if it does not exist. The increment by zero either creates the
+     * counter with the current time as its initial value or returns the current generation if another node created
+     * it first.
+     *
+     * @param context Context name.
+     *
+     * @return Future that completes with the namespace of the current generation of the context.
+     */
+    private CompletableFuture<String> createGeneration(final String context) {
+        final String contextId = generationContextId(context);
+        return toFuture(client.asyncIncr(generationKey(contextId), 0L, System.currentTimeMillis(), 0)).thenApply(
+                generation -> {
+                    if (generation < 0) {
+                        throw new CompletionException(
+                                new IOException("Failed to create generation counter for context " + context));
+                    }
+                    final String namespace = generationNamespace(contextId, generation);
+                    cacheNamespace(context, namespace);
+                    return namespace;
+                });
+    }
+
+    /**
+     * Gets the memcached key of the generation counter of a context.
+     *
+     * @param contextId Context identifier produced by {@link #generationContextId(String)}.
+     *
+     * @return Counter key.
+     */
+    private static String generationKey(final String contextId) {
+        return contextId + GENERATION_KEY_SUFFIX;
+    }
+
+    /**
+     * Gets the namespace of the given generation of a context.
+     *
+     * @param contextId Context identifier produced by {@link #generationContextId(String)}.
+     * @param generation Generation number.
+     *
+     * @return Namespace name.
+     */
+    private static String generationNamespace(final String contextId, final long generation) {
+        return contextId + ':' + Long.toString(generation, Character.MAX_RADIX);
+    }
+
+    /**
+     * Gets the part of generation namespaces and counter keys that identifies a context, which is the hash of the
+     * context name produced by the configured {@link KeyHasher}. Context names are always hashed, since names that
+     * contain the separator, e.g. entity IDs, could otherwise produce the namespaces or counter keys of other
+     * contexts, and hashes leave room in namespaces for record keys and key list suffixes.
+     *
+     * @param context Context name.
+     *
+     * @return Hash of context name, which contains no separator.
+     */
+    private String generationContextId(final String context) {
+        final byte[] bytes = context.getBytes(StandardCharsets.UTF_8);
+        return keyBuilder.getHasher().hash(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Stores a new namespace and the reverse mapping from context to namespace. If the mapping already exists,
+     * another node created the context concurrently; the new namespace item is then removed and the existing
+     * namespace is returned.
+     *
+     * @param context Context name.
+     *
+     * @return Future that completes with the namespace name for given context.
+     */
+    private CompletableFuture<String> createNamespaceMapping(final String context) {
+        final String contextKey = memcachedKey(context);
+        return addNamespace(context).thenCompose(namespace ->
+                // Create the reverse mapping to support looking up namespace by context name
+                toFuture(client.add(contextKey, 0, namespace, stringTranscoder)).thenCompose(success -> {
+                    if (success) {
+                        cacheNamespace(context, namespace);
+                        return CompletableFuture.completedFuture(namespace);
+                    }
+                    logger.debug("Context {} was created concurrently; adopting existing namespace", context);
+                    client.delete(namespace);
+                    return toFuture(client.asyncGets(contextKey, stringTranscoder)).thenCompose(existing -> {
+                        if (existing == null) {
+                            // Context was deleted in the meantime
+                            return createNamespaceMapping(context);
+                        }
+                        cacheNamespace(context, existing.getValue());
+                        return CompletableFuture.completedFuture(existing.getValue());
+                    });
+                }));
+    }
+
+    /**
+     * Records the namespace of an existing context in the local namespace caches, if enabled. The creation counter
+     * of the context is advanced before the context is evicted from the missing namespace cache so that a lookup in
+     * progress does not put it back.
+     *
+     * @param context Context name.
+     * @param namespace Context namespace.
+     */
+    private void cacheNamespace(final String context, final String namespace) {
+        if (missingNamespaceCache != null) {
+            missingNamespaceEpochs.incrementAndGet(missingNamespaceEpochStripe(context));
+            missingNamespaceCache.invalidate(context);
+        }
+        if (namespaceCache != null) {
+            namespaceCache.put(context, namespace);
+        }
+    }
+
+    /**
+     * Gets the index of the creation counter of the local missing namespace cache that is shared by the given context.
+     *
+     * @param context Context name.
+     *
+     * @return Creation counter index.
+     */
+    private static int missingNamespaceEpochStripe(final String context) {
+        return Math.floorMod(context.hashCode(), MISSING_NAMESPACE_EPOCH_STRIPES);
+    }
+
+    /**
+     * Stores a new namespace item whose value is the given context name. Generated namespaces are unique, but the
+     * add operation is repeated with a new namespace on the remote chance the item already exists.
+     *
+     * @param context Context name.
+     *
+     * @return Future that completes with the namespace name.
+     */
+    private CompletableFuture<String> addNamespace(final String context) {
+        // Namespace values are safe for memcached keys
+        final String namespace = namespaceGenerator.generate();
+        return toFuture(client.add(namespace, 0, context, stringTranscoder)).thenCompose(success -> {
+            if (success) {
+                return CompletableFuture.completedFuture(namespace);
+            }
+            logger.warn("Generated namespace {} already exists", namespace);
+            return addNamespace(context);
+        });
+    }
+
+    /**
+     * Creates a memcached key from a single part, e.g. a context name.
+     *
+     * @param key Key.
+     *
+     * @return Key comprised of 250 characters or less.
+     */
+    private String memcachedKey(final String key) {
+        if (hashedKeyCache == null || key.length() <= MemcachedKeyBuilder.MAX_KEY_LENGTH) {
+            return keyBuilder.build(key);
+        }
+        String hashed = hashedKeyCache.getIfPresent(key);
+        if (hashed == null) {
+            hashed = keyBuilder.build(key);
+            hashedKeyCache.put(key, hashed);
+        }
+        return hashed;
+    }
+
+    /**
+     * Creates a memcached key from a namespace and local name.
+     *
+     * @param namespace Namespace.
+     * @param key Local name.
+     *
+     * @return Key comprised of 250 characters or less.
+     */
+    private String memcachedKey(final String namespace, final String key) {
+        if (hashedKeyCache == null || namespace.length() + 1 + key.length() <= MemcachedKeyBuilder.MAX_KEY_LENGTH) {
+            return keyBuilder.build(namespace, key);
+        }
+        final CompositeKey compositeKey = new CompositeKey(namespace, key);
+        String hashed = hashedKeyCache.getIfPresent(compositeKey);
+        if (hashed == null) {
+            hashed = keyBuilder.build(namespace, key);
+            hashedKeyCache.put(compositeKey, hashed);
+        }
+        return hashed;
+    }
+
+    /**
+     * Computes the weight of an entry in the hashed key cache, i.e. the total length of the long key and its hash.
+     *
+     * @param key Context name or {@link CompositeKey}.
+     * @param hashed Hashed key.
+     *
+     * @return Entry weight in characters.
+     */
+    private static int hashedKeyWeight(final Object key, final String hashed) {
+        if (key instanceof CompositeKey) {
+            return ((CompositeKey) key).length() + hashed.length();
+        }
+        return ((String) key).length() + hashed.length();
+    }
+
+    /**
+     * Reads all shards of the key list and blacklist of a context in a single multi-get.
+     *
+     * @param namespace Context namespace.
+     *
+     * @return Map of memcached key to contents of each list shard that exists.
+     *
+     * @throws IOException On memcached operation errors.
+     */
+    private Map<String, byte[]> readContextKeyLists(final String namespace) throws IOException {
+        final List<String> listKeys = contextKeyListKeys(CTX_KEY_LIST_SUFFIXES, namespace);
+        listKeys.addAll(contextKeyListKeys(CTX_KEY_BLACKLIST_SUFFIXES, namespace));
+        return await(toFuture(client.asyncGetBulk(listKeys, byteArrayTranscoder)));
+    }
+
+    /**
+     * Gets the keys in the key list of a context that are not blacklisted.
+     *
+     * @param namespace Context namespace.
+     * @param lists Context key list and blacklist shards produced by {@link #readContextKeyLists(String)}.
+     *
+     * @return Memcached keys of tracked records.
+     *
+     * @throws IOException If a list is malformed.
+     */
+    private Set<String> trackedKeys(final String namespace, final Map<String, byte[]> lists) throws IOException {
+        final Set<String> keySet = new HashSet<>();
+        for (String listKey : contextKeyListKeys(CTX_KEY_LIST_SUFFIXES, namespace)) {
+            final byte[] list = lists.get(listKey);
+            if (list != null) {
+                ContextKeyListCodec.decode(namespace, list, keySet::add);
+            }
+        }
+        if (!keySet.isEmpty()) {
+            for (String listKey : contextKeyListKeys(CTX_KEY_BLACKLIST_SUFFIXES, namespace)) {
+                final byte[] list = lists.get(listKey);
+                if (list != null) {
+                    ContextKeyListCodec.decode(namespace, list, keySet::remove);
+                }
+            }
         }
-        final String cacheKey = memcachedKey(namespace, key);
-        this.logger.debug("Updating expiration for entry at {} for context={}, key={}", cacheKey, context, key);
-        return handleAsyncResult(this.client.touch(cacheKey, expiry));
+        return keySet;
     }
 
-    @Override
-    public boolean updateExpiration(@Nonnull final Object value) throws IOException {
-        Constraint.isNotNull(value, "Value cannot be null");
-        return updateExpiration(
-                AnnotationSupport.getContext(value),
-                AnnotationSupport.getKey(value),
-                AnnotationSupport.getExpiration(value));
+    /**
+     * Applies a memcached operation to each of the given records, keeping at most {@link #contextTouchWindow}
+     * operations in flight, and waits for all operations to complete within the context operation timeout.
+     *
+     * @param action Description of the operations for messages.
+     * @param context Context name.
+     * @param keys Memcached keys of records.
+     * @param operation Issues the operation on the record with the given key.
+     * @param pending Number of operations not yet complete, which is updated as operations progress.
+     * @param completed Number of operations that succeeded, which is updated as operations complete.
+     * @param missed Number of operations on records that no longer exist, which is updated as operations complete.
+     *
+     * @throws IOException On memcached operation errors or if the operations did not complete in time.
+     */
+    private void applyToAll(
+            final String action,
+            final String context,
+            final Collection<String> keys,
+            final Function<String, OperationFuture<Boolean>> operation,
+            final AtomicLong pending,
+            final AtomicLong completed,
+            final AtomicLong missed) throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(contextOperationTimeout);
+        final Semaphore window = new Semaphore(contextTouchWindow);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        int issued = 0;
+        pending.addAndGet(keys.size());
+        try {
+            for (String key : keys) {
+                if (!window.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    throw new IOException(action + " for context " + context + " did not complete in time ("
+                            + contextOperationTimeout + "s) after " + issued + " of " + keys.size() + " operations");
+                }
+                if (error.get() != null) {
+                    // Return the permit so that the wait for operations in flight below can succeed
+                    window.release();
+                    break;
+                }
+                logger.trace("{} of key {}", action, key);
+                final OperationFuture<Boolean> result;
+                try {
+                    result = operation.apply(key);
+                } catch (RuntimeException e) {
+                    // The client rejected the operation, e.g. since its queue is full, so no listener will run
+                    error.compareAndSet(null, e);
+                    window.release();
+                    break;
+                }
+                issued++;
+                result.addListener(f -> {
+                    try {
+                        if (result.get()) {
+                            succeeded.incrementAndGet();
+                            completed.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                            missed.incrementAndGet();
+                        }
+                    } catch (ExecutionException e) {
+                        error.compareAndSet(null, e.getCause());
+                    } catch (InterruptedException | RuntimeException e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        pending.decrementAndGet();
+                        window.release();
+                    }
+                });
+            }
+            if (!window.tryAcquire(contextTouchWindow, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new IOException(action + " for context " + context + " did not complete in time ("
+                        + contextOperationTimeout + "s) with " + (succeeded.get() + failed.get()) + " of "
+                        + keys.size() + " operations complete");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Memcached operation interrupted");
+        } finally {
+            pending.addAndGet(issued - keys.size());
+        }
+        if (error.get() != null) {
+            throw new IOException("Memcached operation error", error.get());
+        }
+        logger.debug("{} for context {} succeeded for {} keys; {} keys no longer exist",
+                action, context, succeeded.get(), failed.get());
     }
 
-    @Override
-    public boolean delete(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
-            throws IOException {
-
-        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
-        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
-        final String namespace = lookupNamespace(context);
-        if (namespace == null) {
-            this.logger.debug("Namespace for context {} does not exist", context);
-            return false;
+    private <T> T handleAsyncResult(final OperationFuture<T> result) throws IOException {
+        try {
+            return result.get(timeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IOException("Memcached operation interrupted");
+        } catch (TimeoutException e) {
+            throw new IOException("Memcached operation did not complete in time (" + timeout + "s)");
+        } catch (ExecutionException e) {
+            throw new IOException("Memcached operation error", e);
         }
-        final String cacheKey = memcachedKey(namespace, key);
-        this.logger.debug("Deleting entry at {} for context={}, key={}", cacheKey, context, key);
-        final boolean success = handleAsyncResult(this.client.delete(cacheKey));
-        if (success && trackContextKeys) {
-            logger.debug("Blacklisting key {} for context {}", cacheKey, context);
-            if (!updateContextKeyList(CTX_KEY_BLACKLIST_SUFFIX, namespace, cacheKey)) {
-                logger.debug("Failed appending {} to list of blacklisted keys for context {}", cacheKey, context);
+    }
+
+    /**
+     * Waits for the result of an asynchronous storage operation for at most the operation timeout. Unchecked
+     * exceptions raised by the memcached client, e.g. when it rejects an operation, are rethrown as
+     * {@link IOException}.
+     *
+     * @param future Storage operation future.
+     * @param <T> Type of operation result.
+     *
+     * @return Operation result.
+     *
+     * @throws IOException On memcached operation errors or timeout.
+     */
+    private <T> T await(final CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get(timeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IOException("Memcached operation interrupted");
+        } catch (TimeoutException e) {
+            throw new IOException("Memcached operation did not complete in time (" + timeout + "s)");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            if (e.getCause() instanceof RuntimeException) {
+                throw new IOException("Memcached operation failed", e.getCause());
+            }
+            throw new IOException("Memcached operation error", e.getCause());
         }
-        return success;
     }
 
-    @Override
-    public boolean delete(@Nonnull final Object value) throws IOException {
-        Constraint.isNotNull(value, "Value cannot be null");
-        return delete(
-                AnnotationSupport.getContext(value),
-                AnnotationSupport.getKey(value));
+    /**
+     * Adapts a memcached operation future to a {@link CompletableFuture} that is completed by an operation
+     * completion listener, which allows dependent operations to be composed without blocking.
+     *
+     * @param operation Memcached operation future.
+     * @param <T> Type of operation result.
+     *
+     * @return Future that completes with the operation result or exceptionally with {@link IOException} on
+     * memcached operation errors.
+     */
+    private static <T> CompletableFuture<T> toFuture(final OperationFuture<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        operation.addListener(f -> {
+            try {
+                future.complete(operation.get());
+            } catch (ExecutionException e) {
+                future.completeExceptionally(new IOException("Memcached operation error", e.getCause()));
+            } catch (InterruptedException | RuntimeException e) {
+                future.completeExceptionally(new IOException("Memcached operation failed", e));
+            }
+        });
+        return future;
     }
 
-    @Override
-    public boolean deleteWithVersion(@Positive final long version,
-                                     @Nonnull @NotEmpty final String context,
-                                     @Nonnull @NotEmpty final String key) throws IOException, VersionMismatchException {
-        Constraint.isGreaterThan(0, version, "Version must be positive");
-        Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
-        Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
-        final String namespace = lookupNamespace(context);
-        if (namespace == null) {
-            this.logger.debug("Namespace for context {} does not exist", context);
-            return false;
-        }
-        final String cacheKey = memcachedKey(namespace, key);
-        this.logger.debug("Deleting entry at {} for context={}, key={}, version={}", cacheKey, context, key, version);
-        final boolean success = handleAsyncResult(this.client.delete(cacheKey, version));
-        if (success && trackContextKeys) {
-            logger.debug("Blacklisting key {} for context {}", cacheKey, context);
-            if (!updateContextKeyList(CTX_KEY_BLACKLIST_SUFFIX, namespace, cacheKey)) {
-                logger.debug("Failed appending {} to list of blacklisted keys for context {}", cacheKey, context);
+    /**
+     * Adapts a memcached bulk get future to a {@link CompletableFuture} that is completed by a completion listener.
+     *
+     * @param operation Memcached bulk get future.
+     * @param <T> Type of values.
+     *
+     * @return Future that completes with the map of key to value for each key found or exceptionally with
+     * {@link IOException} on memcached operation errors.
+     */
+    private static <T> CompletableFuture<Map<String, T>> toFuture(final BulkFuture<Map<String, T>> operation) {
+        final CompletableFuture<Map<String, T>> future = new CompletableFuture<>();
+        operation.addListener(f -> {
+            try {
+                future.complete(operation.get());
+            } catch (ExecutionException e) {
+                future.completeExceptionally(new IOException("Memcached operation error", e.getCause()));
+            } catch (InterruptedException | RuntimeException e) {
+                future.completeExceptionally(new IOException("Memcached operation failed", e));
             }
-        }
-        return success;
+        });
+        return future;
     }
 
-    @Override
-    public boolean deleteWithVersion(@Positive final long version, @Nonnull final Object value)
-            throws IOException, VersionMismatchException {
+    /**
+     * Creates a future that has failed since the memcached client rejected an operation.
+     *
+     * @param e Exception thrown by the memcached client.
+     * @param <T> Type of operation result.
+     *
+     * @return Future that has completed exceptionally with {@link IOException}.
+     */
+    private static <T> CompletableFuture<T> failedFuture(final RuntimeException e) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(new IOException("Memcached operation failed", e));
+        return future;
+    }
 
-        Constraint.isNotNull(value, "Value cannot be null");
-        return deleteWithVersion(
-                version,
-                AnnotationSupport.getContext(value),
-                AnnotationSupport.getKey(value));
+    /**
+     * Reads the record at the given memcached key. When read coalescing is enabled, the read joins an identical read
+     * in progress if there is one.
+     *
+     * @param cacheKey Memcached key.
+     *
+     * @return Future that completes with the versioned record or null if no record exists.
+     */
+    private CompletableFuture<MemcachedStorageRecord> readRecord(final String cacheKey) {
+        if (!coalesceReads) {
+            try {
+                return toFuture(client.asyncGets(cacheKey, storageRecordTranscoder)).thenApply(
+                        MemcachedStorageService::versionedRecord);
+            } catch (RuntimeException e) {
+                return failedFuture(e);
+            }
+        }
+        final CompletableFuture<MemcachedStorageRecord> read = new CompletableFuture<>();
+        final CompletableFuture<MemcachedStorageRecord> pending = pendingReads.putIfAbsent(cacheKey, read);
+        if (pending != null) {
+            logger.trace("Joining read in progress for {}", cacheKey);
+            coalescedReadCount.incrementAndGet();
+            // Dependent future so that one waiter cannot complete or cancel the shared read for the others
+            return pending.thenApply(Function.identity());
+        }
+        final OperationFuture<CASValue<MemcachedStorageRecord>> operation;
+        try {
+            operation = client.asyncGets(cacheKey, storageRecordTranscoder);
+        } catch (RuntimeException e) {
+            // The client rejected the operation, e.g. since its queue is full, so no listener will clean up
+            pendingReads.remove(cacheKey, read);
+            complete(read, null, new IOException("Memcached operation failed", e));
+            return read.thenApply(Function.identity());
+        }
+        toFuture(operation).whenComplete((value, error) -> {
+            pendingReads.remove(cacheKey, read);
+            complete(read, error == null ? versionedRecord(value) : null, error);
+        });
+        return read.thenApply(Function.identity());
     }
 
-    @Override
-    public void reap(@Nonnull @NotEmpty final String context) throws IOException {
-        return;
+    /**
+     * Evicts a record from the local record cache, if enabled, once a write of the record completes.
+     *
+     * @param cacheKey Memcached key of the record.
+     * @param write Future of the write operation.
+     * @param <T> Type of write operation result.
+     *
+     * @return Future that completes with the write operation result after the record is evicted.
+     */
+    private <T> CompletableFuture<T> evictRecord(final String cacheKey, final CompletableFuture<T> write) {
+        if (recordCache == null) {
+            return write;
+        }
+        return write.whenComplete((result, error) -> invalidateRecords(Collections.singleton(cacheKey)));
     }
 
-    @Override
-    public void updateContextExpiration(@Nonnull @NotEmpty final String context, @Nullable final Long expiration)
-            throws IOException {
-        if (!trackContextKeys) {
-            throw new UnsupportedOperationException(
-                    "updateContextExpiration not supported when trackContextKeys == false");
+    /**
+     * Evicts records from the local record cache, if enabled, once writes of the records complete.
+     *
+     * @param cacheKeys Memcached keys of the records.
+     * @param writes Future of the write operations.
+     * @param <T> Type of write operations result.
+     *
+     * @return Future that completes with the write operations result after the records are evicted.
+     */
+    private <T> CompletableFuture<T> evictRecords(
+            final Collection<String> cacheKeys, final CompletableFuture<T> writes) {
+        if (recordCache == null) {
+            return writes;
         }
-        final int expiry = MemcachedStorageRecord.expiry(expiration);
-        Constraint.isGreaterThan(-1, expiry, "Expiration must be null or positive");
-        final String namespace = lookupNamespace(context);
-        if (namespace ==  null) {
-            logger.debug("Cannot update context expiration since context namespace does not exist");
+        return writes.whenComplete((result, error) -> invalidateRecords(cacheKeys));
+    }
+
+    /**
+     * Evicts records from the local record cache, if enabled. The eviction counters of the records are advanced
+     * before the records are evicted so that a read in progress does not put a record it read earlier back.
+     *
+     * @param cacheKeys Memcached keys of the records.
+     */
+    private void invalidateRecords(final Collection<String> cacheKeys) {
+        if (recordCache == null) {
             return;
         }
-        final CASValue<String> keys = handleAsyncResult(
-                this.client.asyncGets(namespace + CTX_KEY_LIST_SUFFIX, stringTranscoder));
-        if (keys == null) {
-            logger.debug("No context keys found to update expiration");
-            return;
+        for (String cacheKey : cacheKeys) {
+            recordCacheEpochs.incrementAndGet(recordCacheEpochStripe(cacheKey));
         }
-        final Set<String> keySet = new HashSet<>(Arrays.asList(keys.getValue().split(CTX_KEY_LIST_DELIMITER)));
-        final CASValue<String> blacklistKeys = handleAsyncResult(
-                this.client.asyncGets(namespace + CTX_KEY_BLACKLIST_SUFFIX, stringTranscoder));
-        if (blacklistKeys != null) {
-            keySet.removeAll(Arrays.asList(blacklistKeys.getValue().split(CTX_KEY_LIST_DELIMITER)));
+        recordCache.invalidateAll(cacheKeys);
+    }
+
+    /**
+     * Gets the index of the eviction counter of the local record cache that is shared by the given key.
+     *
+     * @param cacheKey Memcached key of a record.
+     *
+     * @return Eviction counter index.
+     */
+    private static int recordCacheEpochStripe(final String cacheKey) {
+        return Math.floorMod(cacheKey.hashCode(), RECORD_CACHE_EPOCH_STRIPES);
+    }
+
+    /**
+     * Completes a future with the outcome of another stage.
+     *
+     * @param future Future to complete.
+     * @param result Result of the other stage.
+     * @param error Error raised by the other stage or null on success.
+     * @param <T> Type of result.
+     */
+    private static <T> void complete(final CompletableFuture<T> future, final T result, final Throwable error) {
+        if (error != null) {
+            future.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+        } else {
+            future.complete(result);
         }
-        final List<OperationFuture<Boolean>> results = new ArrayList<>(keySet.size());
-        for (String key : keySet) {
-            logger.debug("Updating expiration of key {} to {}", key, expiry);
-            results.add(this.client.touch(key, expiry));
+    }
+
+    /**
+     * Gets the record from a memcached gets result with its version set to the CAS value.
+     *
+     * @param value Result of memcached gets operation.
+     *
+     * @return Record or null if given value is null.
+     */
+    private static MemcachedStorageRecord versionedRecord(final CASValue<MemcachedStorageRecord> value) {
+        if (value == null) {
+            return null;
         }
-        for (OperationFuture<Boolean> result : results) {
-            handleAsyncResult(result);
+        value.getValue().setVersion(value.getCas());
+        return value.getValue();
+    }
+
+    /**
+     * Waits for all futures in the given map to complete.
+     *
+     * @param futures Map of key to future.
+     * @param <T> Type of future result.
+     *
+     * @return Future that completes with a mutable map of key to result in the iteration order of the given map.
+     */
+    private static <T> CompletableFuture<Map<String, T>> allOf(final Map<String, CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()]))
+                .thenApply(v -> {
+                    final Map<String, T> results = new LinkedHashMap<>(futures.size());
+                    for (Map.Entry<String, CompletableFuture<T>> entry : futures.entrySet()) {
+                        results.put(entry.getKey(), entry.getValue().join());
+                    }
+                    return results;
+                });
+    }
+
+    /**
+     * Adapts a memcached store operation future to a {@link CompletableFuture} and sets the version of the stored
+     * record to the CAS value reported by a successful operation.
+     *
+     * @param operation Memcached store operation future.
+     * @param record Stored record.
+     *
+     * @return Future that completes with the store operation result.
+     */
+    private static CompletableFuture<Boolean> versionedWrite(
+            final OperationFuture<Boolean> operation, final MemcachedStorageRecord record) {
+        return toFuture(operation).thenApply(success -> {
+            if (success) {
+                final Long version = reportedCas(operation);
+                if (version != null) {
+                    record.setVersion(version);
+                }
+            }
+            return success;
+        });
+    }
+
+    /**
+     * Gets the CAS value reported in the response to a completed store operation.
+     *
+     * @param operation Completed memcached operation future.
+     *
+     * @return CAS value or null if none was reported, e.g. under the ASCII protocol.
+     */
+    private static Long reportedCas(final OperationFuture<?> operation) {
+        try {
+            return operation.getCas();
+        } catch (UnsupportedOperationException e) {
+            return null;
         }
     }
 
-    @Override
-    public void deleteContext(@Nonnull @NotEmpty final String context) throws IOException {
+    private static void checkKeys(final String context, final Collection<String> keys) {
         Constraint.isNotNull(StringSupport.trimOrNull(context), "Context cannot be null or empty");
-        final String namespace = lookupNamespace(context);
-        if (namespace == null) {
-            this.logger.debug("Namespace for context {} does not exist. Context values effectively deleted.", context);
-            return;
+        Constraint.isNotNull(keys, "Keys cannot be null");
+        for (String key : keys) {
+            Constraint.isNotNull(StringSupport.trimOrNull(key), "Key cannot be null or empty");
         }
-        final OperationFuture<Boolean> ctxResult = this.client.delete(context);
-        final OperationFuture<Boolean> nsResult = this.client.delete(namespace);
-        if (trackContextKeys) {
-            final OperationFuture<Boolean> keyListResult = this.client.delete(namespace + CTX_KEY_LIST_SUFFIX);
-            final OperationFuture<Boolean> blackListResult = this.client.delete(namespace + CTX_KEY_BLACKLIST_SUFFIX);
-            handleAsyncResult(keyListResult);
-            handleAsyncResult(blackListResult);
-        }
-        handleAsyncResult(ctxResult);
-        handleAsyncResult(nsResult);
     }
 
-    @Override
-    protected void doDestroy() {
-        client.shutdown();
+    private static void checkRecords(final String context, final Map<String, MemcachedStorageRecord> records) {
+        Constraint.isNotNull(records, "Records cannot be null");
+        checkKeys(context, records.keySet());
+        for (MemcachedStorageRecord record : records.values()) {
+            Constraint.isNotNull(record, "Record cannot be null");
+            Constraint.isNotNull(StringSupport.trimOrNull(record.getValue()), "Value cannot be null or empty");
+            Constraint.isGreaterThan(-1, record.getExpiry(), "Expiration must be null or positive");
+        }
     }
 
+    /**
+     * Gets the key suffix of the context key lists written by this instance.
+     *
+     * @return Key list suffix for the configured list format.
+     */
+    private String keyListSuffix() {
+        return compactContextKeyLists ? COMPACT_CTX_KEY_LIST_SUFFIX : CTX_KEY_LIST_SUFFIX;
+    }
 
     /**
-     * Looks up the namespace for the given context name in the cache.
+     * Gets the key suffix of the context key blacklists written by this instance.
      *
-     * @param context Context name.
+     * @return Key blacklist suffix for the configured list format.
+     */
+    private String blacklistSuffix() {
+        return compactContextKeyLists ? COMPACT_CTX_KEY_BLACKLIST_SUFFIX : CTX_KEY_BLACKLIST_SUFFIX;
+    }
+
+    /**
+     * Gets the memcached keys of all shards of the context key lists with the given suffixes.
      *
-     * @return Corresponding namespace for given context or null if no namespace exists for context.
+     * @param suffixes Key suffixes of the lists.
+     * @param namespace Context namespace.
      *
-     * @throws IOException On memcached operation errors.
+     * @return Memcached keys of list shards in suffix order and then shard order.
      */
-    protected String lookupNamespace(final String context) throws IOException {
-        try {
-            final CASValue<String> result = handleAsyncResult(
-                    this.client.asyncGets(memcachedKey(context), stringTranscoder));
-            return result == null ? null : result.getValue();
-        } catch (RuntimeException e) {
-            throw new IOException("Memcached operation failed", e);
+    private List<String> contextKeyListKeys(final List<String> suffixes, final String namespace) {
+        final List<String> listKeys = new ArrayList<>(suffixes.size() * contextKeyListShards);
+        for (String suffix : suffixes) {
+            for (int shard = 0; shard < contextKeyListShards; shard++) {
+                listKeys.add(contextKeyListKey(suffix, namespace, shard));
+            }
         }
+        return listKeys;
     }
 
     /**
-     * Creates a cache-wide unique namespace for the given context name. The context-namespace mapping is stored
-     * in the cache.
+     * Gets the memcached key of a context key list shard.
      *
-     * @param context Context name.
+     * @param suffix Key suffix of the list.
+     * @param namespace Context namespace.
+     * @param shard Shard number.
+     *
+     * @return Memcached key of list shard. The first shard has the key of an unsharded list. Keys of lists of flat
+     * contexts with long names are hashed like record keys.
+     */
+    private String contextKeyListKey(final String suffix, final String namespace, final int shard) {
+        return memcachedKey(shard == 0 ? namespace + suffix : namespace + suffix + ':' + shard);
+    }
+
+    /**
+     * Gets the number of the context key list shard that tracks the given key.
      *
-     * @return Namespace name for given context.
+     * @param cacheKey Memcached key.
      *
-     * @throws IOException On memcached operation errors.
+     * @return Shard number.
+     */
+    private int contextKeyListShard(final String cacheKey) {
+        return Math.floorMod(cacheKey.hashCode(), contextKeyListShards);
+    }
+
+    /**
+     * Appends keys to a context key list, each to the shard chosen by the hash of the key.
+     *
+     * @param suffix Key suffix of the list, which must be that of the list format written by this instance.
+     * @param namespace Context namespace.
+     * @param keys Memcached keys to append.
+     *
+     * @return Future that completes with true if the keys were appended to all shards, false otherwise.
      */
-    protected String createNamespace(final String context) throws IOException {
-        String namespace =  null;
-        boolean success = false;
-        // Perform successive add operations until success to ensure unique namespace
-        while (!success) {
-            namespace = CodecUtil.hex(ByteUtil.toBytes(System.currentTimeMillis()));
-            // Namespace values are safe for memcached keys
-            success = handleAsyncResult(this.client.add(namespace, 0, context, stringTranscoder));
+    private CompletableFuture<Boolean> updateContextKeyList(
+            final String suffix, final String namespace, final Collection<String> keys) {
+        if (contextKeyListShards == 1) {
+            return appendContextKeys(contextKeyListKey(suffix, namespace, 0), namespace, keys);
         }
-        // Create the reverse mapping to support looking up namespace by context name
-        if (!handleAsyncResult(this.client.add(memcachedKey(context), 0, namespace, stringTranscoder))) {
-            throw new IllegalStateException(context + " already exists");
+        final Map<Integer, List<String>> shardKeys = new HashMap<>();
+        for (String key : keys) {
+            shardKeys.computeIfAbsent(contextKeyListShard(key), s -> new ArrayList<>()).add(key);
         }
-        return namespace;
+        final List<CompletableFuture<Boolean>> appends = new ArrayList<>(shardKeys.size());
+        for (Map.Entry<Integer, List<String>> entry : shardKeys.entrySet()) {
+            appends.add(appendContextKeys(
+                    contextKeyListKey(suffix, namespace, entry.getKey()), namespace, entry.getValue()));
+        }
+        return CompletableFuture.allOf(appends.toArray(new CompletableFuture<?>[appends.size()])).thenApply(v -> {
+            for (CompletableFuture<Boolean> append : appends) {
+                if (!append.join()) {
+                    return false;
+                }
+            }
+            return true;
+        });
     }
 
     /**
-     * Creates a memcached key from one or more parts.
+     * Appends keys to a single context key list item, creating the item if it does not exist. The item must be one
+     * of the lists of the format written by this instance, which are the only lists it appends to.
      *
-     * @param parts Key parts (i.e. namespace, local name)
+     * @param listKey Memcached key of list item.
+     * @param namespace Context namespace.
+     * @param keys Memcached keys to append.
      *
-     * @return Key comprised of 250 characters or less.
+     * @return Future that completes with true if the keys were appended, false otherwise.
      */
-    private String memcachedKey(final String ... parts) {
-        final String key;
-        if (parts.length > 0) {
-            final StringBuilder sb = new StringBuilder();
-            int i = 0;
-            for (String part : parts) {
-                if (i++ > 0) {
-                    sb.append(':');
-                }
-                sb.append(part);
+    private CompletableFuture<Boolean> appendContextKeys(
+            final String listKey, final String namespace, final Collection<String> keys) {
+        final byte[] entries = ContextKeyListCodec.encode(namespace, keys, compactContextKeyLists, false);
+        return toFuture(client.append(listKey, entries, byteArrayTranscoder)).thenCompose(success -> {
+            if (!success) {
+                // Assume list does not exist and create it
+                final byte[] newList = ContextKeyListCodec.encode(namespace, keys, compactContextKeyLists, true);
+                return toFuture(client.add(listKey, 0, newList, byteArrayTranscoder));
             }
-            key = sb.toString();
-        } else {
-            key = parts[0];
-        }
-        if (key.length() > MAX_KEY_LENGTH) {
-            return CodecUtil.hex(HashUtil.sha512(key));
-        }
-        return key;
+            return CompletableFuture.completedFuture(true);
+        });
     }
 
-    private <T> T handleAsyncResult(final OperationFuture<T> result) throws IOException {
-        try {
-            return result.get(timeout, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            throw new IOException("Memcached operation interrupted");
-        } catch (TimeoutException e) {
-            throw new IOException("Memcached operation did not complete in time (" + timeout + "s)");
-        } catch (ExecutionException e) {
-            throw new IOException("Memcached operation error", e);
+    /**
+     * Appends the key of a deleted record to the context key blacklist if key tracking is enabled and the delete
+     * succeeds. The append waits for the delete since deletes of records that no longer exist or have another
+     * version are routine, and a key blacklisted for a delete that failed would have to be removed from the
+     * blacklist again.
+     *
+     * @param delete Future of delete operation.
+     * @param context Context name.
+     * @param namespace Context namespace.
+     * @param cacheKey Memcached key of record being deleted.
+     *
+     * @return Future that completes with the result of the delete operation.
+     */
+    private CompletableFuture<Boolean> blacklistAfterDelete(
+            final CompletableFuture<Boolean> delete, final String context, final String namespace,
+            final String cacheKey) {
+        if (!trackContextKeys) {
+            return delete;
         }
+        return delete.thenCompose(deleted -> {
+            if (!deleted) {
+                return CompletableFuture.completedFuture(false);
+            }
+            logger.debug("Blacklisting key {} for context {}", cacheKey, context);
+            return updateContextKeyList(blacklistSuffix(), namespace, Collections.singleton(cacheKey)).handle(
+                    (listed, error) -> {
+                        if (error != null || !listed) {
+                            logger.debug("Failed appending {} to list of blacklisted keys for context {}",
+                                    cacheKey, context);
+                        }
+                        return true;
+                    });
+        });
     }
 
-    private boolean updateContextKeyList(final String suffix, final String namespace, final String key)
-            throws IOException {
-        final String listKey = namespace + suffix;
-        final String newItem = key + CTX_KEY_LIST_DELIMITER;
-        final boolean success = handleAsyncResult(this.client.append(listKey, newItem, stringTranscoder));
-        if (!success) {
-            // Assume list does not exist and create it
-            return handleAsyncResult(this.client.add(listKey, 0, newItem, stringTranscoder));
-        }
-        return success;
+    /**
+     * Namespace and record key from which a memcached key is built. Used as a cache key, it avoids building the
+     * composite string, and its hash code is derived from those already cached by its parts.
+     */
+    private static final class CompositeKey {
+
+        /** Namespace. */
+        private final String namespace;
+
+        /** Record key. */
+        private final String key;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param namespace Namespace.
+         * @param key Record key.
+         */
+        CompositeKey(final String namespace, final String key) {
+            this.namespace = namespace;
+            this.key = key;
+        }
+
+        /**
+         * Gets the length of the memcached key before hashing.
+         *
+         * @return Total length of namespace, separator, and record key.
+         */
+        int length() {
+            return namespace.length() + 1 + key.length();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CompositeKey)) {
+                return false;
+            }
+            final CompositeKey other = (CompositeKey) o;
+            return namespace.equals(other.namespace) && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * namespace.hashCode() + key.hashCode();
+        }
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.util.Base64;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Shortens keys to the unpadded base64url encoding of their 128-bit MurmurHash3 (x64 variant) hash, which produces
+ * 22-character keys at a fraction of the CPU cost of a cryptographic digest. The hash is computed by Guava's
+ * {@link Hashing#murmur3_128()}. It is not collision resistant against deliberate attack, so this hasher should only
+ * be used where long keys are not chosen by untrusted parties; {@link DigestKeyHasher} should be used otherwise. Keys
+ * produced by this hasher differ from those of the default hasher, so items stored under hashed keys by the default
+ * hasher are not visible after switching.
+ *
+ * @author Marvin S. Addison
+ */
+public class Murmur3KeyHasher implements KeyHasher {
+
+    /** Length of an encoded hash. */
+    public static final int HASHED_KEY_LENGTH = 22;
+
+    /** Hash function. */
+    private static final HashFunction MURMUR3 = Hashing.murmur3_128();
+
+    /** Encoder of hashes. */
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+
+    @Override
+    @Nonnull
+    public String hash(@Nonnull final byte[] key, final int offset, final int length) {
+        return ENCODER.encodeToString(MURMUR3.hashBytes(key, offset, length).asBytes());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * Generates cache-wide unique namespace names without coordination between threads or nodes. Each name is the
+ * concatenation of an optional node identifier, random bits chosen once per generator instance, and the value of a
+ * monotonic counter. The random bits distinguish generators on different nodes, and on the same node across
+ * restarts, so the memcached add of a new namespace item does not need to be retried in practice. Names are 9 to
+ * 21 characters in length plus the length of the node identifier, if any.
+ *
+ * @author Marvin S. Addison
+ */
+public class NamespaceGenerator {
+
+    /** Number of random bytes that distinguish generator instances. */
+    private static final int INSTANCE_ID_LENGTH = 6;
+
+    /** Node identifiers are restricted to characters that are safe in memcached keys. */
+    private static final Pattern NODE_ID_PATTERN = Pattern.compile("[A-Za-z0-9_.-]{1,32}");
+
+    /** Prefix common to all names produced by this instance. */
+    @Nonnull
+    private final String prefix;
+
+    /** Source of the unique part of each name. */
+    private final AtomicLong counter = new AtomicLong();
+
+
+    /** Creates a new instance whose names are distinguished from those of other instances only by random bits. */
+    public NamespaceGenerator() {
+        this(null);
+    }
+
+    /**
+     * Creates a new instance with a node identifier.
+     *
+     * @param nodeId Identifier of the node on which the generator runs, e.g. <code>idp1</code>. Up to 32 letters,
+     *               digits, and the characters <code>_.-</code> are permitted.
+     */
+    public NamespaceGenerator(@Nullable final String nodeId) {
+        if (nodeId != null) {
+            Constraint.isTrue(NODE_ID_PATTERN.matcher(nodeId).matches(), "Invalid node identifier: " + nodeId);
+        }
+        final byte[] instanceId = new byte[INSTANCE_ID_LENGTH];
+        new SecureRandom().nextBytes(instanceId);
+        final String encoded = Base64.getUrlEncoder().withoutPadding().encodeToString(instanceId);
+        prefix = nodeId == null ? encoded : nodeId + '.' + encoded;
+    }
+
+    /**
+     * Generates a new namespace name.
+     *
+     * @return Namespace name that is unique among all names generated by all instances.
+     */
+    @Nonnull
+    public String generate() {
+        return prefix + Long.toString(counter.incrementAndGet(), Character.MAX_RADIX);
+    }
+}
@@ -4,22 +4,99 @@
 
 package edu.vt.middleware.idp.storage;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.spy.memcached.CachedData;
 import net.spy.memcached.transcoders.Transcoder;
 import org.cryptacular.util.ByteUtil;
 
 /**
- * Handles conversion of {@link MemcachedStorageRecord} to bytes and back.
+ * Handles conversion of {@link MemcachedStorageRecord} to bytes and back. An encoded record consists of the 8-byte
+ * big-endian expiration followed by the UTF-8 encoded value. Values are encoded into per-thread scratch buffers and
+ * copied once into an array of exactly the encoded size, which becomes the memcached item data, so encoding
+ * allocates nothing beyond that array.
+ * <p>
+ * Values of at least a threshold size may optionally be compressed by a {@link CompressionCodec}. A compressed record
+ * consists of the expiration, the 4-byte big-endian length of the encoded value, and the compressed value; it is
+ * marked by the {@link #COMPRESSED_FLAG} item flag, and the identifier of the codec is stored in the second byte of
+ * the flags. Values that do not shrink are stored uncompressed. Records are decoded according to their flags, so
+ * uncompressed records written before compression was enabled remain readable, and Deflate-compressed records are
+ * readable by every instance. Since earlier versions ignore the flags, compression should be enabled only once no
+ * earlier version reads the cache.
  *
  * @author Marvin S. Addison
  */
 public class StorageRecordTranscoder implements Transcoder<MemcachedStorageRecord> {
 
+    /** Item flag that marks compressed records. */
+    public static final int COMPRESSED_FLAG = 2;
+
     /** Max size is maximum default memcached value size, 1MB. */
     private static final int MAX_SIZE = 1024 * 1024;
 
+    /**
+     * Length in characters of the longest value encoded through the scratch buffers, which covers typical records.
+     * Longer values are encoded into new arrays.
+     */
+    private static final int MAX_SCRATCH_LENGTH = 16 * 1024;
+
+    /**
+     * Capacity in bytes of the largest encoded or compressed value held by the scratch buffers. Values whose encoding
+     * is longer are encoded into new arrays, so the buffers each thread retains are bounded to 96 KB: 32 KB each for
+     * the characters, the encoded value, and the compressed value.
+     */
+    private static final int MAX_SCRATCH_BYTES = 32 * 1024;
+
+    /** Scratch buffers of the current thread. */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /** Length of the expiration header. */
+    private static final int HEADER_LENGTH = 8;
+
+    /** Length of the encoded value length that precedes a compressed value. */
+    private static final int LENGTH_FIELD_LENGTH = 4;
+
+    /** Codec used to read Deflate-compressed records regardless of configuration. */
+    private static final CompressionCodec DEFLATE = new DeflateCompressionCodec();
+
+    /** Codec that compresses values; null to store values uncompressed. */
+    @Nullable
+    private final CompressionCodec codec;
+
+    /** Minimum length in bytes of encoded values that are compressed. */
+    private final int compressionThreshold;
+
+
+    /** Creates a new instance that stores values uncompressed. */
+    public StorageRecordTranscoder() {
+        codec = null;
+        compressionThreshold = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates a new instance that compresses large values.
+     *
+     * @param codec Compression codec.
+     * @param threshold Minimum length in bytes of the UTF-8 encoded values to compress.
+     */
+    public StorageRecordTranscoder(@Nonnull final CompressionCodec codec, @Positive final int threshold) {
+        Constraint.isNotNull(codec, "Compression codec cannot be null");
+        Constraint.isTrue(codec.getId() > 0 && codec.getId() < 256, "Codec identifier must be between 1 and 255");
+        Constraint.isGreaterThan(0, threshold, "Compression threshold must be positive");
+        this.codec = codec;
+        this.compressionThreshold = threshold;
+    }
 
     @Override
     public boolean asyncDecode(CachedData d) {
@@ -28,26 +105,156 @@ public class StorageRecordTranscoder implements Transcoder<MemcachedStorageRecor
 
     @Override
     public CachedData encode(final MemcachedStorageRecord o) {
-        final byte[] value = o.getValue().getBytes(StandardCharsets.UTF_8);
-        final byte[] encoded = new byte[value.length + 8];
+        final String value = o.getValue();
+        final Scratch scratch = SCRATCH.get();
+        final int encodedLength = value.length() > MAX_SCRATCH_LENGTH ? -1 : scratch.encode(value);
+        final byte[] bytes = encodedLength < 0 ? value.getBytes(StandardCharsets.UTF_8) : scratch.bytes;
+        final int length = encodedLength < 0 ? bytes.length : encodedLength;
+        final CachedData compressed = length >= compressionThreshold ? compress(o, bytes, length, scratch) : null;
+        if (compressed != null) {
+            return compressed;
+        }
+        final byte[] encoded = new byte[HEADER_LENGTH + length];
+        System.arraycopy(bytes, 0, encoded, HEADER_LENGTH, length);
         ByteUtil.toBytes(o.getExpiration() == null ? 0 : o.getExpiration().longValue(), encoded, 0);
-        System.arraycopy(value, 0, encoded, 8, value.length);
         return new CachedData(0, encoded, MAX_SIZE);
     }
 
     @Override
     public MemcachedStorageRecord decode(final CachedData d) {
         final byte[] bytes = d.getData();
-        final String value = new String(bytes, 8, bytes.length - 8, StandardCharsets.UTF_8);
         final long exp = ((long) bytes[0] << 56) | (((long) bytes[1] & 0xff) << 48) |
                 (((long) bytes[2] & 0xff) << 40) | (((long) bytes[3] & 0xff) << 32) |
                 (((long) bytes[4] & 0xff) << 24) | (((long) bytes[5] & 0xff) << 16) |
                 (((long) bytes[6] & 0xff) << 8) | ((long) bytes[7] & 0xff);
-        return new MemcachedStorageRecord(value, exp == 0 ? null : new Long(exp));
+        if ((d.getFlags() & COMPRESSED_FLAG) == 0) {
+            // The value is decoded when first needed
+            return new MemcachedStorageRecord(bytes, HEADER_LENGTH, exp == 0 ? null : new Long(exp));
+        }
+        final CompressionCodec c = codec(d.getFlags() >>> 8 & 0xFF);
+        final int length = (bytes[8] & 0xff) << 24 | (bytes[9] & 0xff) << 16 | (bytes[10] & 0xff) << 8
+                | bytes[11] & 0xff;
+        final int offset = HEADER_LENGTH + LENGTH_FIELD_LENGTH;
+        final byte[] value = new byte[length];
+        try {
+            c.decompress(bytes, offset, bytes.length - offset, value, 0, length);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot decompress record", e);
+        }
+        return new MemcachedStorageRecord(value, 0, exp == 0 ? null : new Long(exp));
     }
 
     @Override
     public int getMaxSize() {
         return MAX_SIZE;
     }
+
+    /**
+     * Compresses an encoded value.
+     *
+     * @param record Record being encoded.
+     * @param bytes Buffer holding the UTF-8 encoded value.
+     * @param length Length of the encoded value.
+     * @param scratch Scratch space of the current thread.
+     *
+     * @return Compressed record, or null if compression would not make it smaller.
+     */
+    @Nullable
+    private CachedData compress(
+            final MemcachedStorageRecord record, final byte[] bytes, final int length, final Scratch scratch) {
+        // Compression must save more than the length field it requires
+        final int limit = length - LENGTH_FIELD_LENGTH - 1;
+        if (limit <= 0) {
+            return null;
+        }
+        final byte[] out = length > MAX_SCRATCH_BYTES ? new byte[limit] : scratch.compressed(limit);
+        final int compressedLength = codec.compress(bytes, 0, length, out, 0, limit);
+        if (compressedLength < 0) {
+            return null;
+        }
+        final byte[] encoded = new byte[HEADER_LENGTH + LENGTH_FIELD_LENGTH + compressedLength];
+        ByteUtil.toBytes(record.getExpiration() == null ? 0 : record.getExpiration().longValue(), encoded, 0);
+        ByteUtil.toBytes(length, encoded, HEADER_LENGTH);
+        System.arraycopy(out, 0, encoded, HEADER_LENGTH + LENGTH_FIELD_LENGTH, compressedLength);
+        return new CachedData(codec.getId() << 8 | COMPRESSED_FLAG, encoded, MAX_SIZE);
+    }
+
+    /**
+     * Gets the codec that compressed a record.
+     *
+     * @param id Codec identifier from the record flags.
+     *
+     * @return Compression codec.
+     */
+    private CompressionCodec codec(final int id) {
+        if (codec != null && codec.getId() == id) {
+            return codec;
+        }
+        if (id == DeflateCompressionCodec.ID) {
+            return DEFLATE;
+        }
+        throw new IllegalStateException("Record compressed with unknown codec " + id);
+    }
+
+    /** Buffers reused by all values encoded on one thread. */
+    private static final class Scratch {
+
+        /** UTF-8 encoder that replaces malformed input with <code>?</code> like {@link String#getBytes}. */
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /** Characters of the value being encoded. */
+        private char[] chars = new char[4096];
+
+        /** UTF-8 encoding of the value. */
+        private byte[] bytes = new byte[3 * 4096];
+
+        /** Compressed value. */
+        private byte[] compressed = new byte[0];
+
+        /**
+         * Gets the compression output buffer, growing it if needed.
+         *
+         * @param length Required capacity.
+         *
+         * @return Buffer of at least the required capacity.
+         */
+        byte[] compressed(final int length) {
+            if (compressed.length < length) {
+                compressed = new byte[length];
+            }
+            return compressed;
+        }
+
+        /**
+         * Encodes a value into the byte buffer, growing the buffers if needed.
+         *
+         * @param value Value to encode.
+         *
+         * @return Length of the encoded value in bytes, or -1 if the encoded value exceeds the byte buffer.
+         */
+        int encode(final String value) {
+            final int n = value.length();
+            if (chars.length < n) {
+                chars = new char[n];
+                // At most three bytes per char since supplementary characters take two chars
+                bytes = new byte[Math.min(3 * n, MAX_SCRATCH_BYTES)];
+            }
+            value.getChars(0, n, chars, 0);
+            final ByteBuffer out = ByteBuffer.wrap(bytes);
+            encoder.reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(chars, 0, n), out, true);
+            if (result.isUnderflow()) {
+                result = encoder.flush(out);
+            }
+            if (result.isOverflow()) {
+                return -1;
+            }
+            if (!result.isUnderflow()) {
+                throw new IllegalStateException("Unexpected encoder result " + result);
+            }
+            return out.position();
+        }
+    }
 }
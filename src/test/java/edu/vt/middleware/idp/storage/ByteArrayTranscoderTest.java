@@ -0,0 +1,28 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit test for {@link edu.vt.middleware.idp.storage.ByteArrayTranscoder}.
+ */
+public class ByteArrayTranscoderTest {
+
+    private ByteArrayTranscoder transcoder = new ByteArrayTranscoder();
+
+    @Test
+    public void testEncodeDecode() {
+        final byte[] bytes = {0, 1, 2, '\n', (byte) 0xFF};
+        assertEquals(transcoder.decode(transcoder.encode(bytes)), bytes);
+    }
+
+    @Test
+    public void testReadsStringValues() {
+        assertEquals(new String(transcoder.decode(new StringTranscoder().encode("a\nb"))), "a\nb");
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptacular.generator.RandomIdGenerator;
+import org.cryptacular.util.CodecUtil;
+import org.cryptacular.util.HashUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of decoding a context key list into the set of keys used by
+ * {@link MemcachedStorageService#updateContextExpiration(String, Long)}, comparing the former string split of a text
+ * list with {@link ContextKeyListCodec} decoding of text and compact lists. A fraction of the keys are hashed keys.
+ * Run with <code>mvn -P benchmark test -Dbenchmark=ContextKeyListCodecBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContextKeyListCodecBenchmark {
+
+    private static final String NAMESPACE = "idp1.Ab3_-xyz1";
+
+    @Param({"1000", "20000"})
+    public int keys;
+
+    /** Percentage of keys that are hashed. */
+    @Param({"10"})
+    public int hashedPercent;
+
+    private byte[] textList;
+
+    private byte[] compactList;
+
+    @Setup
+    public void setUp() {
+        final RandomIdGenerator generator = new RandomIdGenerator(32);
+        final List<String> cacheKeys = new ArrayList<>(keys);
+        for (int i = 0; i < keys; i++) {
+            final String key = NAMESPACE + ':' + generator.generate();
+            cacheKeys.add(i % 100 < hashedPercent ? CodecUtil.hex(HashUtil.sha512(key)) : key);
+        }
+        textList = ContextKeyListCodec.encode(NAMESPACE, cacheKeys, false, true);
+        compactList = ContextKeyListCodec.encode(NAMESPACE, cacheKeys, true, true);
+        System.out.printf("%n%d keys: text list %d bytes, compact list %d bytes%n",
+                keys, textList.length, compactList.length);
+    }
+
+    @Benchmark
+    public Set<String> splitText() {
+        return new HashSet<>(Arrays.asList(new String(textList, StandardCharsets.UTF_8).split("\n")));
+    }
+
+    @Benchmark
+    public Set<String> decodeText() throws IOException {
+        final Set<String> keySet = new HashSet<>(keys * 4 / 3 + 1);
+        ContextKeyListCodec.decode(NAMESPACE, textList, keySet::add);
+        return keySet;
+    }
+
+    @Benchmark
+    public Set<String> decodeCompact() throws IOException {
+        final Set<String> keySet = new HashSet<>(keys * 4 / 3 + 1);
+        ContextKeyListCodec.decode(NAMESPACE, compactList, keySet::add);
+        return keySet;
+    }
+}
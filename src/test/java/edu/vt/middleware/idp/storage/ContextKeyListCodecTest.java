@@ -0,0 +1,86 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cryptacular.util.CodecUtil;
+import org.cryptacular.util.HashUtil;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit test for {@link ContextKeyListCodec}.
+ */
+public class ContextKeyListCodecTest {
+
+    private static final String NAMESPACE = "idp1.Ab3_-xyz1";
+
+    private static final List<String> KEYS = Arrays.asList(
+            NAMESPACE + ":_a35c7fe2b1d84ec8a9120f1c6f7e0d3b",
+            CodecUtil.hex(HashUtil.sha512("a very long key")),
+            NAMESPACE + ":" + repeat('k', 200),
+            "literal:key");
+
+    @DataProvider(name = "formats")
+    public static Object[][] formats() {
+        return new Object[][] {
+                new Object[] {false},
+                new Object[] {true},
+        };
+    }
+
+    @Test(dataProvider = "formats")
+    public void testEncodeDecode(final boolean compact) throws IOException {
+        final byte[] list = ContextKeyListCodec.encode(NAMESPACE, KEYS, compact, true);
+        assertEquals(ContextKeyListCodec.isCompact(list), compact);
+        assertEquals(decode(list), KEYS);
+    }
+
+    @Test(dataProvider = "formats")
+    public void testAppend(final boolean compact) throws IOException {
+        final byte[] first = ContextKeyListCodec.encode(NAMESPACE, KEYS.subList(0, 1), compact, true);
+        final byte[] rest = ContextKeyListCodec.encode(NAMESPACE, KEYS.subList(1, KEYS.size()), compact, false);
+        final byte[] list = Arrays.copyOf(first, first.length + rest.length);
+        System.arraycopy(rest, 0, list, first.length, rest.length);
+        assertEquals(decode(list), KEYS);
+    }
+
+    @Test
+    public void testCompactIsSmaller() {
+        assertTrue(ContextKeyListCodec.encode(NAMESPACE, KEYS, true, true).length
+                < ContextKeyListCodec.encode(NAMESPACE, KEYS, false, true).length);
+    }
+
+    @Test
+    public void testDecodeLegacyText() throws IOException {
+        final byte[] list = (KEYS.get(0) + "\n" + KEYS.get(1) + "\n").getBytes(StandardCharsets.UTF_8);
+        assertEquals(decode(list), KEYS.subList(0, 2));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testDecodeTruncated() throws IOException {
+        final byte[] list = ContextKeyListCodec.encode(NAMESPACE, KEYS, true, true);
+        decode(Arrays.copyOf(list, list.length - 1));
+    }
+
+    private static List<String> decode(final byte[] list) throws IOException {
+        final List<String> keys = new ArrayList<>();
+        ContextKeyListCodec.decode(NAMESPACE, list, keys::add);
+        return keys;
+    }
+
+    private static String repeat(final char c, final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
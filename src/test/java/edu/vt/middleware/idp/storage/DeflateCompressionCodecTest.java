@@ -0,0 +1,84 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit test for {@link DeflateCompressionCodec} class.
+ */
+public class DeflateCompressionCodecTest {
+
+    private final DeflateCompressionCodec codec = new DeflateCompressionCodec();
+
+    @Test
+    public void testCompressDecompress() throws Exception {
+        final byte[] data = StorageRecordTranscoderBenchmark.sessionValue(8192).getBytes(StandardCharsets.UTF_8);
+        final byte[] compressed = new byte[data.length + 2];
+        final int length = codec.compress(data, 0, data.length, compressed, 2, data.length);
+        assertTrue(length > 0 && length < data.length);
+        final byte[] decompressed = new byte[data.length + 1];
+        codec.decompress(compressed, 2, length, decompressed, 1, data.length);
+        assertEquals(Arrays.copyOfRange(decompressed, 1, decompressed.length), data);
+    }
+
+    @Test
+    public void testConcurrentUseBeyondPoolSize() throws Exception {
+        final DeflateCompressionCodec pooled = new DeflateCompressionCodec(Deflater.BEST_SPEED, 1);
+        final byte[] data = StorageRecordTranscoderBenchmark.sessionValue(8192).getBytes(StandardCharsets.UTF_8);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<byte[]>> results = new ArrayList<>();
+            for (int t = 0; t < 32; t++) {
+                results.add(executor.submit(() -> {
+                    final byte[] compressed = new byte[data.length];
+                    final int length = pooled.compress(data, 0, data.length, compressed, 0, data.length);
+                    final byte[] decompressed = new byte[data.length];
+                    pooled.decompress(compressed, 0, length, decompressed, 0, data.length);
+                    return decompressed;
+                }));
+            }
+            for (Future<byte[]> result : results) {
+                assertEquals(result.get(), data);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIncompressible() {
+        final byte[] data = new byte[4096];
+        new Random(1).nextBytes(data);
+        assertEquals(codec.compress(data, 0, data.length, new byte[data.length], 0, data.length - 5), -1);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testWrongLength() throws Exception {
+        final byte[] data = "the quick brown fox the quick brown fox".getBytes(StandardCharsets.UTF_8);
+        final byte[] compressed = new byte[data.length];
+        final int length = codec.compress(data, 0, data.length, compressed, 0, compressed.length);
+        codec.decompress(compressed, 0, length, new byte[data.length + 1], 0, data.length + 1);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testMalformed() throws Exception {
+        final byte[] garbage = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+        codec.decompress(garbage, 0, garbage.length, new byte[16], 0, 16);
+    }
+}
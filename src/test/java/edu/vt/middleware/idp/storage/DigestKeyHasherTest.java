@@ -0,0 +1,40 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.nio.charset.StandardCharsets;
+
+import org.cryptacular.util.CodecUtil;
+import org.cryptacular.util.HashUtil;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit test for {@link DigestKeyHasher} class.
+ */
+public class DigestKeyHasherTest {
+
+    @Test
+    public void testDefaultMatchesSha512Hex() {
+        final String key = "idp1.Ab3_-xyz1:a very long key";
+        final byte[] bytes = ("xx" + key + "yy").getBytes(StandardCharsets.UTF_8);
+        final DigestKeyHasher hasher = new DigestKeyHasher();
+        assertEquals(hasher.hash(bytes, 2, bytes.length - 4), CodecUtil.hex(HashUtil.sha512(key)));
+        assertEquals(hasher.hash(bytes, 2, bytes.length - 4), CodecUtil.hex(HashUtil.sha512(key)));
+    }
+
+    @Test
+    public void testSha256() {
+        final byte[] bytes = "a very long key".getBytes(StandardCharsets.UTF_8);
+        assertEquals(new DigestKeyHasher("SHA-256").hash(bytes, 0, bytes.length),
+                CodecUtil.hex(HashUtil.sha256(bytes)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnsupportedAlgorithm() {
+        new DigestKeyHasher("NOPE-1");
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptacular.generator.RandomIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-key cost of the {@link KeyHasher} implementations for the composite key of an IdP session record,
+ * i.e. a 256-character hex context name and a 256-character hex key. The length of the key produced by each hasher
+ * is printed on setup. Run with <code>mvn -P benchmark test -Dbenchmark=KeyHasherBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyHasherBenchmark {
+
+    private final KeyHasher sha512 = new DigestKeyHasher();
+
+    private final KeyHasher sha256 = new DigestKeyHasher("SHA-256");
+
+    private final KeyHasher murmur3 = new Murmur3KeyHasher();
+
+    private byte[] key;
+
+    @Setup
+    public void setUp() {
+        final RandomIdGenerator generator = new RandomIdGenerator(256, "0123456789abcdef");
+        key = (generator.generate() + ':' + generator.generate()).getBytes(StandardCharsets.UTF_8);
+        System.out.printf("%nKey lengths: sha512 %d, sha256 %d, murmur3 %d%n",
+                sha512().length(), sha256().length(), murmur3().length());
+    }
+
+    @Benchmark
+    public String sha512() {
+        return sha512.hash(key, 0, key.length);
+    }
+
+    @Benchmark
+    public String sha256() {
+        return sha256.hash(key, 0, key.length);
+    }
+
+    @Benchmark
+    public String murmur3() {
+        return murmur3.hash(key, 0, key.length);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cryptacular.generator.RandomIdGenerator;
+import org.cryptacular.util.CodecUtil;
+import org.cryptacular.util.HashUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the former varargs key construction of {@link MemcachedStorageService} with {@link MemcachedKeyBuilder}
+ * for a typical record key and for the 256-character hex keys of IdP session contexts, which require hashing. Run
+ * with <code>mvn -P benchmark test -Dbenchmark=MemcachedKeyBuilderBenchmark</code> and add <code>-prof gc</code> to
+ * the JMH arguments to report the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MemcachedKeyBuilderBenchmark {
+
+    private static final String NAMESPACE = "idp1.Ab3_-xyz1";
+
+    /** Length of the record key. */
+    @Param({"32", "256"})
+    public int keyLength;
+
+    private final MemcachedKeyBuilder builder = new MemcachedKeyBuilder();
+
+    private String key;
+
+    @Setup
+    public void setUp() {
+        key = new RandomIdGenerator(keyLength, "0123456789abcdef").generate();
+    }
+
+    @Benchmark
+    public String varargs() {
+        return memcachedKey(NAMESPACE, key);
+    }
+
+    @Benchmark
+    public String builder() {
+        return builder.build(NAMESPACE, key);
+    }
+
+    private static String memcachedKey(final String ... parts) {
+        final StringBuilder sb = new StringBuilder();
+        int i = 0;
+        for (String part : parts) {
+            if (i++ > 0) {
+                sb.append(':');
+            }
+            sb.append(part);
+        }
+        final String key = sb.toString();
+        if (key.length() > MemcachedKeyBuilder.MAX_KEY_LENGTH) {
+            return CodecUtil.hex(HashUtil.sha512(key));
+        }
+        return key;
+    }
+}
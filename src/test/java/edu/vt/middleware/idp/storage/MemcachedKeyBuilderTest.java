@@ -0,0 +1,67 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import org.cryptacular.util.CodecUtil;
+import org.cryptacular.util.HashUtil;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit test for {@link MemcachedKeyBuilder} class.
+ */
+public class MemcachedKeyBuilderTest {
+
+    private final MemcachedKeyBuilder builder = new MemcachedKeyBuilder();
+
+    @DataProvider
+    public Object[][] keys() {
+        return new Object[][] {
+                new Object[] {"idp1.Ab3_-xyz1", "idp_session_key"},
+                new Object[] {repeat('n', 124), repeat('k', 125)},
+                new Object[] {repeat('n', 124), repeat('k', 126)},
+                new Object[] {"idp1.Ab3_-xyz1", repeat('k', 600)},
+                new Object[] {"idp1.Ab3_-xyz1", repeat('\u00e9', 300)},
+        };
+    }
+
+    @Test(dataProvider = "keys")
+    public void testBuildMatchesHashedConcatenation(final String namespace, final String key) {
+        final String expected = expectedKey(namespace + ':' + key);
+        assertEquals(builder.build(namespace, key), expected);
+        assertEquals(builder.build(namespace + ':' + key), expected);
+        assertTrue(builder.build(namespace, key).length() <= MemcachedKeyBuilder.MAX_KEY_LENGTH);
+    }
+
+    @Test
+    public void testCustomHasher() {
+        final MemcachedKeyBuilder murmur = new MemcachedKeyBuilder(new Murmur3KeyHasher());
+        assertEquals(murmur.build("idp1.Ab3_-xyz1", "k"), "idp1.Ab3_-xyz1:k");
+        assertEquals(murmur.build("idp1.Ab3_-xyz1", repeat('k', 600)).length(), Murmur3KeyHasher.HASHED_KEY_LENGTH);
+    }
+
+    @Test
+    public void testShortKeyReturnedAsIs() {
+        final String key = "context";
+        assertSame(builder.build(key), key);
+    }
+
+    private static String expectedKey(final String key) {
+        if (key.length() > MemcachedKeyBuilder.MAX_KEY_LENGTH) {
+            return CodecUtil.hex(HashUtil.sha512(key));
+        }
+        return key;
+    }
+
+    private static String repeat(final char c, final int count) {
+        final StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -4,6 +4,10 @@
 
 package edu.vt.middleware.idp.storage;
 
+import java.nio.charset.StandardCharsets;
+
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import org.opensaml.storage.StorageSerializer;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.*;
@@ -26,4 +30,49 @@ public class MemcachedStorageRecordTest {
         assertNull(record.getExpiration());
         assertEquals(record.getExpiry(), 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncodedValue() {
+        final byte[] value = "床前明月光".getBytes(StandardCharsets.UTF_8);
+        final byte[] buffer = new byte[value.length + 8];
+        System.arraycopy(value, 0, buffer, 8, value.length);
+        final MemcachedStorageRecord record = new MemcachedStorageRecord(buffer, 8, 5031757792L);
+        assertEquals(record.getExpiry(), 5031757);
+        assertEquals(record.getValue(), "床前明月光");
+        assertEquals(record.getValue(), "床前明月光");
+        record.setValue("r3");
+        assertEquals(record.getValue(), "r3");
+    }
+
+    @Test
+    public void testValueSetBeforeDecoding() {
+        final MemcachedStorageRecord record = new MemcachedStorageRecord(
+                "12345".getBytes(StandardCharsets.UTF_8), 0, null);
+        record.setValue("r4");
+        assertEquals(record.getValue(), "r4");
+        assertEquals(record.getValue(), "r4");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEncodedValueDeserialization() throws Exception {
+        final MemcachedStorageRecord record = new MemcachedStorageRecord(
+                "12345".getBytes(StandardCharsets.UTF_8), 2, null);
+        assertEquals(record.getValue(new IntegerSerializer(), "context", "key"), 345);
+    }
+
+    private static class IntegerSerializer extends AbstractInitializableComponent
+            implements StorageSerializer<Integer> {
+
+        @Override
+        public String serialize(final Integer instance) {
+            return instance.toString();
+        }
+
+        @Override
+        public Integer deserialize(
+                final long version, final String context, final String key, final String value, final Long exp) {
+            return Integer.valueOf(value);
+        }
+    }
+}
@@ -4,10 +4,18 @@
 
 package edu.vt.middleware.idp.storage;
 
+import com.google.common.cache.CacheStats;
 import net.shibboleth.utilities.java.support.collection.Pair;
 import net.spy.memcached.BinaryConnectionFactory;
+import net.spy.memcached.CASValue;
 import net.spy.memcached.DefaultConnectionFactory;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.transcoders.Transcoder;
 import org.cryptacular.generator.IdGenerator;
 import org.cryptacular.generator.RandomIdGenerator;
 import org.opensaml.storage.StorageRecord;
@@ -19,10 +27,25 @@ import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.testng.Assert.*;
 import static org.testng.Assert.assertEquals;
@@ -38,13 +61,37 @@ import static org.testng.Assert.assertEquals;
 @Test(groups = {"needs-external-fixture"})
 public class MemcachedStorageServiceTest {
 
+    private static final String RECORD_CACHE_CONTEXT = "cachedRecords";
+
+    private static final String FLAT_CONTEXT = "flatRecords";
+
+    private MemcachedClient client;
+
     private MemcachedStorageService service;
 
     private MemcachedStorageService keyTrackingService;
 
+    private MemcachedStorageService namespaceCachingService;
+
+    private MemcachedStorageService casReportingService;
+
+    private MemcachedStorageService compactKeyTrackingService;
+
+    private MemcachedStorageService shardedKeyTrackingService;
+
+    private MemcachedStorageService generationService;
+
+    private MemcachedStorageService coalescingService;
+
+    private MemcachedStorageService recordCachingService;
+
+    private DeferredTouchClient deferredTouchClient;
+
+    private MemcachedStorageService deferredTouchService;
+
     @BeforeClass
-    public void setUp() throws IOException {
-        final MemcachedClient client = new MemcachedClient(
+    public void setUp() throws Exception {
+        client = new MemcachedClient(
                 new BinaryConnectionFactory(),
                 Collections.singletonList(new InetSocketAddress("localhost", 11211)));
         try {
@@ -54,6 +101,40 @@ public class MemcachedStorageServiceTest {
         }
         service = new MemcachedStorageService(client, 1);
         keyTrackingService = new MemcachedStorageService(client, 1, true);
+        compactKeyTrackingService = new MemcachedStorageService(client, 1, true);
+        compactKeyTrackingService.setCompactContextKeyLists(true);
+        compactKeyTrackingService.setContextKeyListCompactionThreshold(64);
+        compactKeyTrackingService.setContextKeyListCompactionBatchSize(8);
+        compactKeyTrackingService.initialize();
+        shardedKeyTrackingService = new MemcachedStorageService(client, 1, true);
+        shardedKeyTrackingService.setContextKeyListShards(4);
+        shardedKeyTrackingService.setContextTouchWindow(4);
+        shardedKeyTrackingService.setDeleteContextRecords(true);
+        shardedKeyTrackingService.initialize();
+        deferredTouchClient = new DeferredTouchClient();
+        deferredTouchService = new MemcachedStorageService(deferredTouchClient, 1, true);
+        deferredTouchService.setContextTouchWindow(4);
+        deferredTouchService.setContextOperationTimeout(2);
+        deferredTouchService.initialize();
+        generationService = new MemcachedStorageService(client, 1, true);
+        generationService.setGenerationNamespaces(true);
+        generationService.initialize();
+        coalescingService = new MemcachedStorageService(client, 1);
+        coalescingService.setCoalesceReads(true);
+        coalescingService.initialize();
+        recordCachingService = new MemcachedStorageService(client, 1);
+        recordCachingService.setRecordCacheSize(100);
+        recordCachingService.setRecordCacheContexts(Collections.singleton(RECORD_CACHE_CONTEXT));
+        recordCachingService.initialize();
+        namespaceCachingService = new MemcachedStorageService(client, 1);
+        namespaceCachingService.setNamespaceCacheSize(100);
+        namespaceCachingService.setMissingNamespaceCacheSize(100);
+        namespaceCachingService.initialize();
+        casReportingService = new MemcachedStorageService(
+                new CASReportingMemcachedClient(
+                        new BinaryConnectionFactory(),
+                        Collections.singletonList(new InetSocketAddress("localhost", 11211))),
+                1);
     }
 
     @DataProvider
@@ -136,6 +217,140 @@ public class MemcachedStorageServiceTest {
         assertNull(service.read(context, key));
     }
 
+    @Test(dataProvider = "testValues")
+    public void testAsyncCreateReadUpdateDelete(
+            final String context, final String key, final String value, final String updatedValue)
+            throws Exception {
+        final String asyncContext = "async_" + context;
+        assertNull(service.readAsync(asyncContext, key).get());
+        assertTrue(service.createAsync(asyncContext, key, value, 5000L).get());
+        final StorageRecord r1 = service.readAsync(asyncContext, key).get();
+        assertNotNull(r1);
+        assertEquals(r1.getValue(), value);
+        final Long updatedVersion = service.updateWithVersionAsync(
+                r1.getVersion(), asyncContext, key, updatedValue, 5000L).get();
+        assertTrue(updatedVersion > r1.getVersion());
+        try {
+            service.updateWithVersionAsync(r1.getVersion(), asyncContext, key, value, 5000L).get();
+            fail("Should have thrown VersionMismatchException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof VersionMismatchException);
+        }
+        assertTrue(service.updateExpirationAsync(asyncContext, key, 10000L).get());
+        assertFalse(service.deleteWithVersionAsync(r1.getVersion(), asyncContext, key).get());
+        assertTrue(service.deleteAsync(asyncContext, key).get());
+        assertNull(service.readAsync(asyncContext, key).get());
+    }
+
+    @Test
+    public void testReadAll() throws IOException {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final Set<String> keys = createContextKeys(context, generator, 10);
+        final Set<String> requested = new HashSet<>(keys);
+        requested.add("missing_key");
+        final Map<String, MemcachedStorageRecord> records = keyTrackingService.readAll(context, requested);
+        assertEquals(records.keySet(), keys);
+        for (String key : keys) {
+            final StorageRecord record = keyTrackingService.read(context, key);
+            assertEquals(records.get(key).getValue(), record.getValue());
+            assertEquals(records.get(key).getVersion(), record.getVersion());
+        }
+        assertTrue(keyTrackingService.readAll(generator.generate(), keys).isEmpty());
+    }
+
+    @Test
+    public void testCreateUpdateDeleteAll() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final Map<String, MemcachedStorageRecord> records = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            records.put(generator.generate(), new MemcachedStorageRecord("Bulk value " + i, 30000L));
+        }
+        final String existingKey = records.keySet().iterator().next();
+        assertTrue(keyTrackingService.create(context, existingKey, "Existing value", 30000L));
+        final Map<String, Boolean> created = keyTrackingService.createAll(context, records);
+        assertEquals(created.keySet(), records.keySet());
+        for (Map.Entry<String, Boolean> result : created.entrySet()) {
+            assertEquals(result.getValue().booleanValue(), !result.getKey().equals(existingKey));
+            if (result.getValue()) {
+                assertEquals(
+                        records.get(result.getKey()).getVersion(),
+                        keyTrackingService.read(context, result.getKey()).getVersion());
+            }
+        }
+        assertEquals(keyTrackingService.read(context, existingKey).getValue(), "Existing value");
+
+        final Map<String, MemcachedStorageRecord> updates = new HashMap<>();
+        for (String key : records.keySet()) {
+            updates.put(key, new MemcachedStorageRecord("Updated " + key, 30000L));
+        }
+        updates.put("missing_key", new MemcachedStorageRecord("Missing", 30000L));
+        final Map<String, Boolean> updated = keyTrackingService.updateAll(context, updates);
+        assertFalse(updated.get("missing_key"));
+        for (String key : records.keySet()) {
+            assertTrue(updated.get(key));
+            assertEquals(keyTrackingService.read(context, key).getValue(), "Updated " + key);
+        }
+
+        final Map<String, Boolean> deleted = keyTrackingService.deleteAll(context, updates.keySet());
+        assertFalse(deleted.get("missing_key"));
+        for (String key : records.keySet()) {
+            assertTrue(deleted.get(key));
+            assertNull(keyTrackingService.read(context, key));
+        }
+    }
+
+    @Test(dataProvider = "testValues")
+    public void testUpdateWithReportedVersion(
+            final String context, final String key, final String value, final String updatedValue)
+            throws IOException, VersionMismatchException {
+        final String casContext = "cas_" + context;
+        assertTrue(casReportingService.create(casContext, key, value, 5000L));
+        final StorageRecord r1 = casReportingService.read(casContext, key);
+        final Long updatedVersion = casReportingService.updateWithVersion(
+                r1.getVersion(), casContext, key, updatedValue, 5000L);
+        assertNotNull(updatedVersion);
+        final StorageRecord r2 = casReportingService.read(casContext, key);
+        assertEquals(r2.getValue(), updatedValue);
+        assertEquals(r2.getVersion(), updatedVersion.longValue());
+        try {
+            casReportingService.updateWithVersion(r1.getVersion(), casContext, key, value, 5000L);
+            fail("Should have thrown VersionMismatchException");
+        } catch (VersionMismatchException e) {
+            assertNotNull(e);
+        }
+        assertTrue(casReportingService.delete(casContext, key));
+    }
+
+    @Test
+    public void testConcurrentContextCreation() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        // Distinct service instances stand in for IdP nodes
+        final MemcachedStorageService[] nodes = {service, namespaceCachingService, casReportingService};
+        final ExecutorService executor = Executors.newFixedThreadPool(30);
+        try {
+            final Map<String, Future<Boolean>> results = new HashMap<>();
+            for (int i = 0; i < 30; i++) {
+                final MemcachedStorageService node = nodes[i % nodes.length];
+                final String key = "key" + i;
+                results.put(key, executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return node.create(context, key, "Concurrent value", 30000L);
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<Boolean>> result : results.entrySet()) {
+                assertTrue(result.getValue().get());
+                assertEquals(service.read(context, result.getKey()).getValue(), "Concurrent value");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void testDeleteContextDeletesEntries() throws IOException {
         final IdGenerator generator = new RandomIdGenerator(50);
@@ -159,6 +374,18 @@ public class MemcachedStorageServiceTest {
     }
 
 
+    @Test
+    public void testDeleteContextWithLongName() throws IOException {
+        final String context = new RandomIdGenerator(256, "0123456789abcdef").generate();
+        assertTrue(service.create(context, "key", "Long context", 30000L));
+        // Mapping of a long context name is stored under the hash of the name
+        final String mappingKey = contextHash(context);
+        assertNotNull(client.get(mappingKey));
+        service.deleteContext(context);
+        assertNull(client.get(mappingKey));
+        assertNull(service.read(context, "key"));
+    }
+
     @Test
     public void testUpdateExpiration() throws IOException {
         final IdGenerator generator = new RandomIdGenerator(20);
@@ -205,10 +432,619 @@ public class MemcachedStorageServiceTest {
         }
     }
 
+    @Test
+    public void testUpdateContextExpirationWithCompactKeyLists() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final Set<String> keySet = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            keySet.add(generator.generate());
+        }
+        // Long key that is hashed
+        keySet.add(new RandomIdGenerator(250).generate());
+        for (String k : keySet) {
+            assertTrue(compactKeyTrackingService.create(context, k, "Compact", 30000L));
+        }
+        assertTrue(compactKeyTrackingService.delete(context, keySet.iterator().next()));
+        final long initialReclaimed = compactKeyTrackingService.getContextKeyListCompactionReclaimedBytes();
+        compactKeyTrackingService.updateContextExpiration(context, System.currentTimeMillis() - 5000);
+        for (String k : keySet) {
+            assertNull(compactKeyTrackingService.read(context, k));
+        }
+        // Lists exceed the compaction threshold
+        assertTrue(compactKeyTrackingService.getContextKeyListCompactionReclaimedBytes() > initialReclaimed);
+    }
+
+    @Test
+    public void testMixedKeyListFormats() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        // Nodes writing text and compact lists track keys of the same context
+        final Set<String> textKeys = createContextKeys(context, generator, 5);
+        final Set<String> compactKeys = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            final String key = generator.generate();
+            assertTrue(compactKeyTrackingService.create(context, key, "Compact " + i, 30000L));
+            compactKeys.add(key);
+        }
+        // Each node blacklists keys tracked by the other
+        assertTrue(compactKeyTrackingService.delete(context, textKeys.iterator().next()));
+        assertTrue(keyTrackingService.delete(context, compactKeys.iterator().next()));
+        assertTrue(keyTrackingService.compactContextKeyLists(context) > 0);
+        final long initialTouches = compactKeyTrackingService.getCompletedContextTouches();
+        compactKeyTrackingService.updateContextExpiration(context, System.currentTimeMillis() - 5000);
+        assertEquals(compactKeyTrackingService.getCompletedContextTouches(), initialTouches + 8);
+        final Set<String> allKeys = new HashSet<>(textKeys);
+        allKeys.addAll(compactKeys);
+        for (String k : allKeys) {
+            assertNull(keyTrackingService.read(context, k));
+        }
+    }
+
+    @Test
+    public void testUpdateContextExpirationWithShardedKeyLists() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final Map<String, MemcachedStorageRecord> records = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            records.put(generator.generate(), new MemcachedStorageRecord("Sharded " + i, 30000L));
+        }
+        for (Boolean created : shardedKeyTrackingService.createAll(context, records).values()) {
+            assertTrue(created);
+        }
+        final String single = generator.generate();
+        assertTrue(shardedKeyTrackingService.create(context, single, "Single", 30000L));
+        assertTrue(shardedKeyTrackingService.delete(context, records.keySet().iterator().next()));
+        final long initialTouches = shardedKeyTrackingService.getCompletedContextTouches();
+        shardedKeyTrackingService.updateContextExpiration(context, System.currentTimeMillis() - 5000);
+        assertEquals(shardedKeyTrackingService.getCompletedContextTouches(), initialTouches + 20);
+        assertEquals(shardedKeyTrackingService.getPendingContextTouches(), 0);
+        assertTrue(shardedKeyTrackingService.readAll(context, records.keySet()).isEmpty());
+        assertNull(shardedKeyTrackingService.read(context, single));
+        shardedKeyTrackingService.deleteContext(context);
+    }
+
+    @Test
+    public void testContextTouchWindow() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(deferredTouchService.create(context, generator.generate(), "Windowed " + i, 30000L));
+        }
+        final long initialTouches = deferredTouchService.getCompletedContextTouches();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> update = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    deferredTouchService.updateContextExpiration(context, System.currentTimeMillis() + 60000);
+                    return null;
+                }
+            });
+            final List<DeferredTouchClient.DeferredTouch> inFlight = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                inFlight.add(deferredTouchClient.nextTouch(1000));
+                assertNotNull(inFlight.get(i));
+            }
+            // Window is full until a touch completes
+            assertNull(deferredTouchClient.nextTouch(200));
+            assertEquals(deferredTouchService.getPendingContextTouches(), 10);
+            inFlight.get(0).succeed();
+            final DeferredTouchClient.DeferredTouch next = deferredTouchClient.nextTouch(1000);
+            assertNotNull(next);
+            next.succeed();
+            for (DeferredTouchClient.DeferredTouch touch : inFlight.subList(1, 4)) {
+                touch.succeed();
+            }
+            for (int i = 0; i < 5; i++) {
+                deferredTouchClient.nextTouch(1000).succeed();
+            }
+            update.get(1, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(deferredTouchService.getCompletedContextTouches(), initialTouches + 10);
+        assertEquals(deferredTouchService.getPendingContextTouches(), 0);
+    }
+
+    @Test
+    public void testContextTouchDeadline() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(deferredTouchService.create(context, generator.generate(), "Stalled " + i, 30000L));
+        }
+        try {
+            deferredTouchService.updateContextExpiration(context, System.currentTimeMillis() + 60000);
+            fail("Should have thrown IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("did not complete in time"), e.getMessage());
+        } finally {
+            DeferredTouchClient.DeferredTouch touch;
+            while ((touch = deferredTouchClient.nextTouch(0)) != null) {
+                touch.succeed();
+            }
+        }
+        // Completion listeners run on the client executor
+        for (int i = 0; i < 20 && deferredTouchService.getPendingContextTouches() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(deferredTouchService.getPendingContextTouches(), 0);
+    }
+
+    @Test
+    public void testContextTouchError() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        for (int i = 0; i < 8; i++) {
+            assertTrue(deferredTouchService.create(context, generator.generate(), "Failing " + i, 30000L));
+        }
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> update = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    deferredTouchService.updateContextExpiration(context, System.currentTimeMillis() + 60000);
+                    return null;
+                }
+            });
+            deferredTouchClient.nextTouch(1000).fail();
+            // Touches in flight when the error occurred still complete, but no further touches are issued
+            while (!update.isDone()) {
+                final DeferredTouchClient.DeferredTouch touch = deferredTouchClient.nextTouch(100);
+                if (touch != null) {
+                    touch.succeed();
+                }
+            }
+            try {
+                update.get();
+                fail("Should have thrown IOException");
+            } catch (ExecutionException e) {
+                // The error is reported rather than a timeout waiting for the window
+                assertTrue(e.getCause() instanceof IOException);
+                assertEquals(e.getCause().getMessage(), "Memcached operation error");
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(deferredTouchService.getPendingContextTouches(), 0);
+    }
+
+    @Test
+    public void testContextTouchRejectedByClient() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        for (int i = 0; i < 8; i++) {
+            assertTrue(deferredTouchService.create(context, generator.generate(), "Rejected " + i, 30000L));
+        }
+        deferredTouchClient.rejectTouchesAfter(2);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> update = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    deferredTouchService.updateContextExpiration(context, System.currentTimeMillis() + 60000);
+                    return null;
+                }
+            });
+            // Touches issued before the rejection still complete
+            for (int i = 0; i < 2; i++) {
+                final DeferredTouchClient.DeferredTouch touch = deferredTouchClient.nextTouch(1000);
+                assertNotNull(touch);
+                touch.succeed();
+            }
+            try {
+                update.get(1, TimeUnit.SECONDS);
+                fail("Should have thrown IOException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            deferredTouchClient.rejectTouchesAfter(-1);
+            executor.shutdown();
+        }
+        assertNull(deferredTouchClient.nextTouch(100));
+        assertEquals(deferredTouchService.getPendingContextTouches(), 0);
+    }
+
+    @Test
+    public void testCompactContextKeyLists() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final List<String> keys = new ArrayList<>(createContextKeys(context, generator, 10));
+        for (String key : keys.subList(0, 3)) {
+            assertTrue(keyTrackingService.delete(context, key));
+        }
+        for (String key : keys.subList(3, 5)) {
+            assertTrue(keyTrackingService.updateExpiration(context, key, System.currentTimeMillis() - 5000));
+        }
+        final long initialReclaimed = keyTrackingService.getContextKeyListCompactionReclaimedBytes();
+        final long reclaimed = keyTrackingService.compactContextKeyLists(context);
+        assertTrue(reclaimed > 0);
+        assertEquals(keyTrackingService.getContextKeyListCompactionReclaimedBytes(), initialReclaimed + reclaimed);
+        assertEquals(keyTrackingService.compactContextKeyLists(context), 0);
+        keyTrackingService.updateContextExpiration(context, System.currentTimeMillis() - 5000);
+        for (String key : keys) {
+            assertNull(keyTrackingService.read(context, key));
+        }
+    }
+
+    @Test
+    public void testCompactionLeavesUnchangedListsAlone() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        createContextKeys(context, generator, 10);
+        final String listKey = client.get(context) + MemcachedStorageService.CTX_KEY_LIST_SUFFIX;
+        final long cas = client.gets(listKey).getCas();
+        assertEquals(keyTrackingService.compactContextKeyLists(context), 0);
+        assertEquals(client.gets(listKey).getCas(), cas);
+    }
+
+    @Test
+    public void testDeleteContextDeletesTrackedRecords() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final Map<String, MemcachedStorageRecord> records = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            records.put(generator.generate(), new MemcachedStorageRecord("Resident " + i, 30000L));
+        }
+        for (Boolean created : shardedKeyTrackingService.createAll(context, records).values()) {
+            assertTrue(created);
+        }
+        final long itemsBefore = currentItems();
+        final long initialDeletes = shardedKeyTrackingService.getCompletedContextDeletes();
+        shardedKeyTrackingService.deleteContext(context);
+        assertEquals(shardedKeyTrackingService.getCompletedContextDeletes(), initialDeletes + 50);
+        assertEquals(shardedKeyTrackingService.getPendingContextDeletes(), 0);
+        // Records, key list shards, and namespace mapping items are gone
+        assertTrue(itemsBefore - currentItems() >= 52, "Expected at least 52 fewer items");
+        assertNull(service.read(context, records.keySet().iterator().next()));
+    }
+
+    @Test
+    public void testReap() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final List<String> keys = new ArrayList<>(createContextKeys(context, generator, 10));
+        for (String key : keys.subList(0, 4)) {
+            assertTrue(keyTrackingService.updateExpiration(context, key, System.currentTimeMillis() - 5000));
+        }
+        final long initialReclaimed = keyTrackingService.getContextKeyListCompactionReclaimedBytes();
+        keyTrackingService.reap(context);
+        assertTrue(keyTrackingService.getContextKeyListCompactionReclaimedBytes() > initialReclaimed);
+        for (String key : keys.subList(4, 10)) {
+            assertNotNull(keyTrackingService.read(context, key));
+        }
+        // Nothing to reap without key tracking
+        service.reap(context);
+    }
+
+    @Test
+    public void testFailedDeleteDoesNotBlacklist() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final Set<String> keys = createContextKeys(context, generator, 5);
+        final String key = keys.iterator().next();
+        final long version = keyTrackingService.read(context, key).getVersion();
+        assertFalse(keyTrackingService.deleteWithVersion(version + 1000, context, key));
+        assertFalse(keyTrackingService.delete(context, generator.generate()));
+        keyTrackingService.updateContextExpiration(context, System.currentTimeMillis() - 5000);
+        for (String k : keys) {
+            assertNull(keyTrackingService.read(context, k));
+        }
+    }
+
+    @Test
+    public void testFlatContext() throws Exception {
+        final MemcachedStorageService flatService = newFlatService();
+        try {
+            final String key = new RandomIdGenerator(20).generate();
+            assertTrue(flatService.create(FLAT_CONTEXT, key, "Flat", 30000L));
+            assertFalse(flatService.create(FLAT_CONTEXT, key, "Flat again", 30000L));
+            // No namespace mapping, record stored under a key derived from context and key
+            assertNull(client.get(FLAT_CONTEXT));
+            assertNotNull(client.get("~" + FLAT_CONTEXT + ":" + key));
+            assertEquals(flatService.read(FLAT_CONTEXT, key).getValue(), "Flat");
+            assertTrue(flatService.update(FLAT_CONTEXT, key, "Flatter", 30000L));
+            assertEquals(flatService.read(FLAT_CONTEXT, key).getValue(), "Flatter");
+            assertTrue(flatService.delete(FLAT_CONTEXT, key));
+            assertNull(flatService.read(FLAT_CONTEXT, key));
+            // Same context name is independent in a service where it is not flat
+            assertNull(service.read(FLAT_CONTEXT, key));
+        } finally {
+            flatService.destroy();
+        }
+    }
+
+    @Test
+    public void testFlatContextWithLongNameAndKeyTracking() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = new RandomIdGenerator(256).generate();
+        final MemcachedStorageService trackingFlatService = new MemcachedStorageService(newClient(), 1, true);
+        trackingFlatService.setFlatContexts(Collections.singleton(context));
+        trackingFlatService.initialize();
+        try {
+            final Set<String> keys = new HashSet<>();
+            for (int i = 0; i < 5; i++) {
+                final String key = generator.generate();
+                keys.add(key);
+                assertTrue(trackingFlatService.create(context, key, "Tracked " + i, 30000L));
+            }
+            trackingFlatService.updateContextExpiration(context, System.currentTimeMillis() - 5000);
+            for (String key : keys) {
+                assertNull(trackingFlatService.read(context, key));
+            }
+        } finally {
+            trackingFlatService.destroy();
+        }
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testFlatContextDelete() throws Exception {
+        final MemcachedStorageService flatService = newFlatService();
+        try {
+            flatService.deleteContext(FLAT_CONTEXT);
+        } finally {
+            flatService.destroy();
+        }
+    }
+
+    @Test
+    public void testGenerationNamespaces() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final String key = generator.generate();
+        assertNull(generationService.read(context, key));
+        assertTrue(generationService.create(context, key, "First generation", 30000L));
+        assertFalse(generationService.create(context, key, "First generation again", 30000L));
+        final long generation = currentGeneration(context);
+        assertNotNull(client.get(
+                contextHash(context) + ":" + Long.toString(generation, Character.MAX_RADIX) + ":" + key));
+        assertEquals(generationService.read(context, key).getValue(), "First generation");
+        generationService.updateContextExpiration(context, System.currentTimeMillis() + 60000);
+
+        generationService.deleteContext(context);
+        assertEquals(currentGeneration(context), generation + 1);
+        assertNull(generationService.read(context, key));
+        assertTrue(generationService.create(context, key, "Second generation", 30000L));
+        assertEquals(generationService.read(context, key).getValue(), "Second generation");
+        generationService.deleteContext(context);
+        assertNull(generationService.read(context, key));
+    }
+
+    @Test
+    public void testGenerationNamespacesWithSeparatorInContext() throws Exception {
+        final String context = new RandomIdGenerator(20).generate();
+        assertTrue(generationService.create(context, "key", "Outer", 30000L));
+        // Context name that embeds the namespace of the other context
+        final String nested = context + ":" + Long.toString(currentGeneration(context), Character.MAX_RADIX);
+        assertTrue(generationService.create(nested, "key", "Nested", 30000L));
+        final String aliasKey = Long.toString(currentGeneration(nested), Character.MAX_RADIX) + ":key";
+        assertNull(generationService.read(context, aliasKey));
+        assertEquals(generationService.read(nested, "key").getValue(), "Nested");
+    }
+
+    @Test
+    public void testNamespaceCache() throws IOException {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final String key = generator.generate();
+        final long initialHits = namespaceCachingService.getNamespaceCacheStats().hitCount();
+        assertTrue(namespaceCachingService.create(context, key, "Cached namespace", 30000L));
+        assertEquals(namespaceCachingService.read(context, key).getValue(), "Cached namespace");
+        assertTrue(namespaceCachingService.update(context, key, "Still cached", 30000L));
+        assertEquals(namespaceCachingService.getNamespaceCacheStats().hitCount(), initialHits + 2);
+        namespaceCachingService.deleteContext(context);
+        assertNull(namespaceCachingService.read(context, key));
+    }
+
+    @Test
+    public void testHashedKeyCache() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(256, "0123456789abcdef");
+        final String context = generator.generate();
+        final String key = generator.generate();
+        final MemcachedStorageService hashedKeyCachingService = new MemcachedStorageService(newClient(), 1);
+        hashedKeyCachingService.setHashedKeyCacheCapacity(100000);
+        hashedKeyCachingService.initialize();
+        try {
+            assertTrue(hashedKeyCachingService.create(context, key, "Long key", 30000L));
+            assertEquals(hashedKeyCachingService.read(context, key).getValue(), "Long key");
+            assertTrue(hashedKeyCachingService.update(context, key, "Longer key", 30000L));
+            assertEquals(service.read(context, key).getValue(), "Longer key");
+            final CacheStats stats = hashedKeyCachingService.getHashedKeyCacheStats();
+            assertTrue(stats.hitCount() >= 2, "Expected repeated long keys to hit the cache");
+            assertTrue(stats.missCount() >= 1);
+            hashedKeyCachingService.deleteContext(context);
+        } finally {
+            hashedKeyCachingService.destroy();
+        }
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final String key = generator.generate();
+        final String value = StorageRecordTranscoderBenchmark.sessionValue(16384);
+        final MemcachedStorageService compressingService = new MemcachedStorageService(newClient(), 1);
+        compressingService.setCompressionCodec(new DeflateCompressionCodec());
+        compressingService.initialize();
+        try {
+            assertTrue(compressingService.create(context, key, value, 30000L));
+            assertEquals(compressingService.read(context, key).getValue(), value);
+            // Uncompressed and compressed records are readable by all instances
+            assertEquals(service.read(context, key).getValue(), value);
+            assertTrue(service.update(context, key, value + "!", 30000L));
+            assertEquals(compressingService.read(context, key).getValue(), value + "!");
+            compressingService.deleteContext(context);
+        } finally {
+            compressingService.destroy();
+        }
+    }
+
+    @Test
+    public void testRecordCache() throws Exception {
+        final String key = new RandomIdGenerator(20).generate();
+        assertTrue(recordCachingService.create(RECORD_CACHE_CONTEXT, key, "Cached record", 30000L));
+        final long initialHits = recordCachingService.getRecordCacheStats().hitCount();
+        final StorageRecord record = recordCachingService.read(RECORD_CACHE_CONTEXT, key);
+        assertEquals(recordCachingService.read(RECORD_CACHE_CONTEXT, key).getVersion(), record.getVersion());
+        assertEquals(recordCachingService.getRecordCacheStats().hitCount(), initialHits + 1);
+
+        // Changes made by another node are not visible until the cached record expires
+        assertTrue(service.update(RECORD_CACHE_CONTEXT, key, "Changed elsewhere", 30000L));
+        assertEquals(recordCachingService.read(RECORD_CACHE_CONTEXT, key).getValue(), "Cached record");
+
+        // Local changes evict the cached record
+        final Long version = recordCachingService.updateWithVersion(
+                service.read(RECORD_CACHE_CONTEXT, key).getVersion(), RECORD_CACHE_CONTEXT, key, "Changed", 30000L);
+        final StorageRecord updated = recordCachingService.read(RECORD_CACHE_CONTEXT, key);
+        assertEquals(updated.getValue(), "Changed");
+        assertEquals(updated.getVersion(), (long) version);
+        assertTrue(recordCachingService.delete(RECORD_CACHE_CONTEXT, key));
+        assertNull(recordCachingService.read(RECORD_CACHE_CONTEXT, key));
+    }
+
+    @Test
+    public void testRecordCacheOmitsExpiredRecords() throws Exception {
+        final String key = new RandomIdGenerator(20).generate();
+        final long expiration = System.currentTimeMillis() + 1500;
+        assertTrue(recordCachingService.create(RECORD_CACHE_CONTEXT, key, "Short lived", expiration));
+        assertEquals(recordCachingService.read(RECORD_CACHE_CONTEXT, key).getValue(), "Short lived");
+        Thread.sleep(expiration - System.currentTimeMillis() + 100);
+        // Cached record outlives its expiration but is no longer served
+        assertNull(recordCachingService.read(RECORD_CACHE_CONTEXT, key));
+    }
+
+    @Test
+    public void testCoalescedReads() throws Exception {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final String key = generator.generate();
+        assertTrue(coalescingService.create(context, key, "Hot value", 30000L));
+        final long version = coalescingService.read(context, key).getVersion();
+        final long initialCount = coalescingService.getCoalescedReadCount();
+        final List<CompletableFuture<MemcachedStorageRecord>> reads = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            reads.add(coalescingService.readAsync(context, key));
+        }
+        for (CompletableFuture<MemcachedStorageRecord> read : reads) {
+            assertEquals(read.get().getValue(), "Hot value");
+            assertEquals(read.get().getVersion(), version);
+        }
+        assertTrue(coalescingService.getCoalescedReadCount() > initialCount);
+    }
+
+    @Test
+    public void testCoalescedReadRejectedByClient() throws Exception {
+        final MemcachedClient closedClient = new MemcachedClient(
+                new BinaryConnectionFactory(),
+                Collections.singletonList(new InetSocketAddress("localhost", 11211)));
+        final MemcachedStorageService rejectingService = new MemcachedStorageService(closedClient, 1);
+        rejectingService.setCoalesceReads(true);
+        // Flat context so that the record read is the first memcached operation
+        rejectingService.setFlatContexts(Collections.singleton(FLAT_CONTEXT));
+        rejectingService.initialize();
+        closedClient.shutdown();
+        // Each read fails immediately instead of joining an earlier read that will never complete
+        for (int i = 0; i < 2; i++) {
+            try {
+                rejectingService.read(FLAT_CONTEXT, "rejected_key");
+                fail("Should have thrown IOException");
+            } catch (IOException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        assertEquals(rejectingService.getCoalescedReadCount(), 0);
+        // Namespace lookups rejected by the client fail the same way
+        try {
+            rejectingService.read("rejected_context", "rejected_key");
+            fail("Should have thrown IOException");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testMissingNamespaceCache() throws IOException {
+        final IdGenerator generator = new RandomIdGenerator(20);
+        final String context = generator.generate();
+        final String key = generator.generate();
+        final long initialHits = namespaceCachingService.getMissingNamespaceCacheStats().hitCount();
+        assertNull(namespaceCachingService.read(context, key));
+        assertFalse(namespaceCachingService.update(context, key, "Missing", 30000L));
+        assertFalse(namespaceCachingService.delete(context, key));
+        assertEquals(namespaceCachingService.getMissingNamespaceCacheStats().hitCount(), initialHits + 2);
+        assertTrue(namespaceCachingService.create(context, key, "Present", 30000L));
+        assertEquals(namespaceCachingService.read(context, key).getValue(), "Present");
+    }
+
+    @Test
+    public void testMissingNamespaceCacheLookupDuringCreate() throws Exception {
+        final DeferredGetsClient deferredGetsClient = new DeferredGetsClient();
+        final MemcachedStorageService missingCachingService = new MemcachedStorageService(deferredGetsClient, 1);
+        missingCachingService.setMissingNamespaceCacheSize(100);
+        missingCachingService.setMissingNamespaceCacheLifetime(60);
+        missingCachingService.initialize();
+        try {
+            final IdGenerator generator = new RandomIdGenerator(20);
+            final String context = generator.generate();
+            final String key = generator.generate();
+            // Lookup finds no namespace but its response arrives only after the context is created on this node
+            deferredGetsClient.holdNextGets(context);
+            final CompletableFuture<MemcachedStorageRecord> read = missingCachingService.readAsync(context, key);
+            assertTrue(missingCachingService.create(context, key, "Created", 30000L));
+            deferredGetsClient.releaseMiss();
+            assertNull(read.get(1, TimeUnit.SECONDS));
+            assertEquals(missingCachingService.read(context, key).getValue(), "Created");
+        } finally {
+            missingCachingService.destroy();
+        }
+    }
+
     @AfterClass
     public void tearDown() {
         service.destroy();
         keyTrackingService.destroy();
+        namespaceCachingService.destroy();
+        casReportingService.destroy();
+        compactKeyTrackingService.destroy();
+        shardedKeyTrackingService.destroy();
+        generationService.destroy();
+        coalescingService.destroy();
+        recordCachingService.destroy();
+        deferredTouchService.destroy();
+    }
+
+    private static MemcachedClient newClient() throws IOException {
+        return new MemcachedClient(
+                new BinaryConnectionFactory(),
+                Collections.singletonList(new InetSocketAddress("localhost", 11211)));
+    }
+
+    private static MemcachedStorageService newFlatService() throws Exception {
+        final MemcachedStorageService flatService = new MemcachedStorageService(newClient(), 1);
+        flatService.setFlatContexts(Collections.singleton(FLAT_CONTEXT));
+        flatService.initialize();
+        return flatService;
+    }
+
+    private long currentGeneration(final String context) {
+        return Long.parseLong(((String) client.get(contextHash(context) + ":generation")).trim());
+    }
+
+    private static String contextHash(final String context) {
+        final byte[] bytes = context.getBytes(StandardCharsets.UTF_8);
+        return new DigestKeyHasher().hash(bytes, 0, bytes.length);
+    }
+
+    private long currentItems() {
+        long items = 0;
+        for (Map<String, String> stats : client.getStats().values()) {
+            items += Long.parseLong(stats.get("curr_items"));
+        }
+        return items;
     }
 
     private Set<String> createContextKeys(final String context, final IdGenerator generator, final int count)
@@ -230,4 +1066,122 @@ public class MemcachedStorageServiceTest {
         }
         return keySet;
     }
-}
\ No newline at end of file
+
+    /** Client whose touch operations complete when the test completes them rather than when memcached responds. */
+    private static final class DeferredGetsClient extends MemcachedClient {
+
+        private volatile String heldKey;
+
+        private volatile OperationFuture<?> held;
+
+        private CountDownLatch heldLatch;
+
+        DeferredGetsClient() throws IOException {
+            super(new BinaryConnectionFactory(), Collections.singletonList(new InetSocketAddress("localhost", 11211)));
+        }
+
+        @Override
+        public <T> OperationFuture<CASValue<T>> asyncGets(final String key, final Transcoder<T> tc) {
+            if (!key.equals(heldKey)) {
+                return super.asyncGets(key, tc);
+            }
+            heldKey = null;
+            heldLatch = new CountDownLatch(1);
+            final OperationFuture<CASValue<T>> future = new OperationFuture<>(
+                    key, heldLatch, operationTimeout, executorService);
+            // Never enqueued; it only gives the future an operation whose state it can report
+            future.setOperation(opFact.gets(key, new GetsOperation.Callback() {
+                @Override
+                public void gotData(final String k, final int flags, final long cas, final byte[] data) {}
+
+                @Override
+                public void receivedStatus(final OperationStatus status) {}
+
+                @Override
+                public void complete() {}
+            }));
+            held = future;
+            return future;
+        }
+
+        void holdNextGets(final String key) {
+            heldKey = key;
+        }
+
+        void releaseMiss() {
+            final OperationFuture<?> future = held;
+            assertNotNull(future, "No gets operation was held");
+            future.set(null, new OperationStatus(false, "NOT_FOUND"));
+            heldLatch.countDown();
+            future.signalComplete();
+        }
+    }
+
+    private static final class DeferredTouchClient extends MemcachedClient {
+
+        private final BlockingQueue<DeferredTouch> touches = new LinkedBlockingQueue<>();
+
+        private final AtomicInteger acceptedTouches = new AtomicInteger(-1);
+
+        DeferredTouchClient() throws IOException {
+            super(new BinaryConnectionFactory(), Collections.singletonList(new InetSocketAddress("localhost", 11211)));
+        }
+
+        @Override
+        public <T> OperationFuture<Boolean> touch(final String key, final int exp) {
+            if (acceptedTouches.getAndUpdate(n -> n > 0 ? n - 1 : n) == 0) {
+                throw new IllegalStateException("Touch rejected");
+            }
+            final CountDownLatch latch = new CountDownLatch(1);
+            final OperationFuture<Boolean> future = new OperationFuture<>(
+                    key, latch, operationTimeout, executorService);
+            // Never enqueued; it only gives the future an operation whose state it can report
+            final Operation op = opFact.touch(key, exp, new OperationCallback() {
+                @Override
+                public void receivedStatus(final OperationStatus status) {}
+
+                @Override
+                public void complete() {}
+            });
+            future.setOperation(op);
+            final DeferredTouch touch = new DeferredTouch(future, op, latch);
+            touches.add(touch);
+            return future;
+        }
+
+        void rejectTouchesAfter(final int accepted) {
+            acceptedTouches.set(accepted);
+        }
+
+        DeferredTouch nextTouch(final long timeoutMillis) throws InterruptedException {
+            return touches.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        static final class DeferredTouch {
+
+            private final OperationFuture<Boolean> future;
+
+            private final Operation op;
+
+            private final CountDownLatch latch;
+
+            DeferredTouch(final OperationFuture<Boolean> future, final Operation op, final CountDownLatch latch) {
+                this.future = future;
+                this.op = op;
+                this.latch = latch;
+            }
+
+            void succeed() {
+                future.set(true, new OperationStatus(true, "OK"));
+                latch.countDown();
+                future.signalComplete();
+            }
+
+            void fail() {
+                op.cancel();
+                latch.countDown();
+                future.signalComplete();
+            }
+        }
+    }
+}
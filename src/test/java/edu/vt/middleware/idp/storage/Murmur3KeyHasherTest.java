@@ -0,0 +1,46 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.common.hash.Hashing;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit test for {@link Murmur3KeyHasher} class.
+ */
+public class Murmur3KeyHasherTest {
+
+    private final Murmur3KeyHasher hasher = new Murmur3KeyHasher();
+
+    @Test
+    public void testMatchesReferenceImplementation() {
+        final StringBuilder key = new StringBuilder("ns:");
+        for (int length = 0; length < 300; length++) {
+            final byte[] bytes = ("x" + key + "y").getBytes(StandardCharsets.UTF_8);
+            final String expected = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    Hashing.murmur3_128().hashBytes(bytes, 1, bytes.length - 2).asBytes());
+            final String actual = hasher.hash(bytes, 1, bytes.length - 2);
+            assertEquals(actual, expected, "Key length " + (bytes.length - 2));
+            assertEquals(actual.length(), Murmur3KeyHasher.HASHED_KEY_LENGTH);
+            key.append((char) ('a' + length % 26));
+        }
+    }
+
+    @Test
+    public void testDistinctKeys() {
+        final Set<String> hashes = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            final byte[] bytes = ("context:" + i).getBytes(StandardCharsets.UTF_8);
+            assertTrue(hashes.add(hasher.hash(bytes, 0, bytes.length)));
+        }
+    }
+}
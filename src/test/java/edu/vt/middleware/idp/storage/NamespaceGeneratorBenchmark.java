@@ -0,0 +1,86 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cryptacular.util.ByteUtil;
+import org.cryptacular.util.CodecUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures namespace creation throughput under contention, comparing {@link NamespaceGenerator} with the former
+ * strategy of deriving the namespace from the current time and repeating the memcached add until it succeeds.
+ * A concurrent map stands in for memcached, and each simulated node is a distinct generator shared by a subset of the
+ * benchmark threads. Run with <code>mvn -P benchmark test -Dbenchmark=NamespaceGeneratorBenchmark</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(24)
+public class NamespaceGeneratorBenchmark {
+
+    /** Namespaces created cluster-wide, i.e. the memcached namespace items. */
+    @State(Scope.Benchmark)
+    public static class Cluster {
+
+        @Param({"1", "12"})
+        public int nodes;
+
+        public NamespaceGenerator[] generators;
+
+        public final ConcurrentMap<String, String> namespaces = new ConcurrentHashMap<>();
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            generators = new NamespaceGenerator[nodes];
+            for (int i = 0; i < nodes; i++) {
+                generators[i] = new NamespaceGenerator("node" + i);
+            }
+            namespaces.clear();
+        }
+    }
+
+    /** Identifies a benchmark thread, which runs on the simulated node given by the thread number. */
+    @State(Scope.Thread)
+    public static class BenchmarkThread {
+
+        private static final AtomicInteger COUNT = new AtomicInteger();
+
+        public final int number = COUNT.getAndIncrement();
+    }
+
+    @Benchmark
+    public String generator(final Cluster cluster, final BenchmarkThread thread) {
+        // Names are unique by construction, so the single add always succeeds and its cost is not simulated
+        return cluster.generators[thread.number % cluster.nodes].generate();
+    }
+
+    @Benchmark
+    public String currentTimeWithRetry(final Cluster cluster) {
+        String namespace;
+        do {
+            namespace = CodecUtil.hex(ByteUtil.toBytes(System.currentTimeMillis()));
+        } while (cluster.namespaces.putIfAbsent(namespace, "context") != null);
+        return namespace;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Unit test for {@link NamespaceGenerator} class.
+ */
+public class NamespaceGeneratorTest {
+
+    @Test
+    public void testUniqueAcrossThreadsAndNodes() throws Exception {
+        final NamespaceGenerator[] nodes = {
+                new NamespaceGenerator("idp1"),
+                new NamespaceGenerator("idp2"),
+                new NamespaceGenerator(),
+                new NamespaceGenerator(),
+        };
+        final Set<String> namespaces = ConcurrentHashMap.newKeySet();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final NamespaceGenerator generator = nodes[i % nodes.length];
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int duplicates = 0;
+                        for (int j = 0; j < 10000; j++) {
+                            if (!namespaces.add(generator.generate())) {
+                                duplicates++;
+                            }
+                        }
+                        return duplicates;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(result.get().intValue(), 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(namespaces.size(), 160000);
+    }
+
+    @Test
+    public void testFormat() {
+        final String namespace = new NamespaceGenerator().generate();
+        assertTrue(namespace.length() >= 9 && namespace.length() <= 21);
+        assertTrue(namespace.matches("[A-Za-z0-9_-]+"));
+        assertTrue(new NamespaceGenerator("idp-1.example").generate().startsWith("idp-1.example."));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidNodeId() {
+        new NamespaceGenerator("idp 1");
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * See LICENSE for licensing and NOTICE for copyright.
+ */
+
+package edu.vt.middleware.idp.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.CachedData;
+import org.cryptacular.generator.RandomIdGenerator;
+import org.cryptacular.util.ByteUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link StorageRecordTranscoder} on records the size of typical serialized IdP sessions, comparing the
+ * current encoding with the former encoding that copied the result of {@link String#getBytes(java.nio.charset.Charset)}
+ * into a second array, and the current lazy decoding with the former eager decoding both when only the record
+ * expiration is used and when the value is used. Deflate compression is measured as well, and the uncompressed and
+ * compressed item sizes are printed on setup to relate its cost to the bytes saved on the wire. Run with
+ * <code>mvn -P benchmark test -Dbenchmark=StorageRecordTranscoderBenchmark</code> and add <code>-prof gc</code> to
+ * the JMH arguments to report the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageRecordTranscoderBenchmark {
+
+    /** Approximate size of the record value in bytes. */
+    @Param({"4096", "20480"})
+    public int valueSize;
+
+    private final StorageRecordTranscoder transcoder = new StorageRecordTranscoder();
+
+    private MemcachedStorageRecord record;
+
+    private final StorageRecordTranscoder compressingTranscoder =
+            new StorageRecordTranscoder(new DeflateCompressionCodec(), 1024);
+
+    private CachedData encoded;
+
+    private CachedData compressed;
+
+    @Setup
+    public void setUp() {
+        record = new MemcachedStorageRecord(sessionValue(valueSize), System.currentTimeMillis() + 3600000);
+        encoded = transcoder.encode(record);
+        compressed = compressingTranscoder.encode(record);
+        System.out.printf("%nItem size: uncompressed %d bytes, compressed %d bytes%n",
+                encoded.getData().length, compressed.getData().length);
+    }
+
+    @Benchmark
+    public CachedData copyEncode() {
+        final byte[] value = record.getValue().getBytes(StandardCharsets.UTF_8);
+        final byte[] encoded = new byte[value.length + 8];
+        ByteUtil.toBytes(record.getExpiration(), encoded, 0);
+        System.arraycopy(value, 0, encoded, 8, value.length);
+        return new CachedData(0, encoded, transcoder.getMaxSize());
+    }
+
+    @Benchmark
+    public CachedData encode() {
+        return transcoder.encode(record);
+    }
+
+    @Benchmark
+    public Long eagerDecodeExpiration() {
+        return eagerDecode().getExpiration();
+    }
+
+    @Benchmark
+    public Long decodeExpiration() {
+        return transcoder.decode(encoded).getExpiration();
+    }
+
+    @Benchmark
+    public String eagerDecodeValue() {
+        return eagerDecode().getValue();
+    }
+
+    @Benchmark
+    public String decodeValue() {
+        return transcoder.decode(encoded).getValue();
+    }
+
+    @Benchmark
+    public CachedData compressingEncode() {
+        return compressingTranscoder.encode(record);
+    }
+
+    @Benchmark
+    public String compressedDecodeValue() {
+        return compressingTranscoder.decode(compressed).getValue();
+    }
+
+    private MemcachedStorageRecord eagerDecode() {
+        final byte[] bytes = encoded.getData();
+        return new MemcachedStorageRecord(
+                new String(bytes, 8, bytes.length - 8, StandardCharsets.UTF_8), ByteUtil.toLong(bytes));
+    }
+
+    /**
+     * Produces a value resembling a serialized IdP session: JSON with repeated structure, identifiers, and
+     * base64-encoded blobs.
+     *
+     * @param size Approximate size in bytes.
+     *
+     * @return Session-like value.
+     */
+    static String sessionValue(final int size) {
+        final RandomIdGenerator ids = new RandomIdGenerator(32);
+        final RandomIdGenerator blobs = new RandomIdGenerator(
+                344, "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+        final StringBuilder sb = new StringBuilder(size + 512);
+        sb.append("{\"ts\":").append(System.currentTimeMillis()).append(",\"principal\":\"jdoe\",\"flows\":[");
+        while (sb.length() < size) {
+            sb.append("{\"id\":\"").append(ids.generate())
+                    .append("\",\"flow\":\"authn/Password\",\"authnTime\":").append(System.currentTimeMillis())
+                    .append(",\"sp\":\"https://sp.example.org/shibboleth\",\"nameId\":\"").append(ids.generate())
+                    .append("\",\"result\":\"").append(blobs.generate()).append("\"},");
+        }
+        sb.setCharAt(sb.length() - 1, ']');
+        return sb.append('}').toString();
+    }
+}
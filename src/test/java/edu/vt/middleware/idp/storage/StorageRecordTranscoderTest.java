@@ -4,6 +4,10 @@
 
 package edu.vt.middleware.idp.storage;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import net.spy.memcached.CachedData;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -22,6 +26,7 @@ public class StorageRecordTranscoderTest {
                 new Object[] {new MemcachedStorageRecord("Whither the weather", null)},
                 new Object[] {new MemcachedStorageRecord("x", Long.MAX_VALUE)},
                 new Object[] {new MemcachedStorageRecord("床前明月光，疑是地上霜. 举头望明月，低头思故乡.", 2515878896L)},
+                new Object[] {new MemcachedStorageRecord("Caf\u00e9 \ud83d\ude00 \u0800\uffff", 1L)},
         };
     }
 
@@ -32,4 +37,72 @@ public class StorageRecordTranscoderTest {
         assertEquals(actual.getExpiration(), expected.getExpiration());
         assertEquals(actual.getVersion(), expected.getVersion());
     }
-}
\ No newline at end of file
+
+    @Test(dataProvider = "testRecords")
+    public void testEncodedValueMatchesStringEncoding(final MemcachedStorageRecord record) {
+        final byte[] data = transcoder.encode(record).getData();
+        final byte[] value = record.getValue().getBytes(StandardCharsets.UTF_8);
+        assertEquals(Arrays.copyOfRange(data, 8, data.length), value);
+    }
+
+    @Test
+    public void testUnpairedSurrogatesEncodedLikeString() {
+        final MemcachedStorageRecord record = new MemcachedStorageRecord("a\ud83db\ude00c\ud83d", null);
+        final byte[] data = transcoder.encode(record).getData();
+        assertEquals(
+                Arrays.copyOfRange(data, 8, data.length), record.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCompression() {
+        final StorageRecordTranscoder compressing = new StorageRecordTranscoder(new DeflateCompressionCodec(), 1024);
+        final String value = StorageRecordTranscoderBenchmark.sessionValue(8192);
+        final MemcachedStorageRecord expected = new MemcachedStorageRecord(value, 2515878896L);
+        final CachedData data = compressing.encode(expected);
+        assertEquals(data.getFlags(), DeflateCompressionCodec.ID << 8 | StorageRecordTranscoder.COMPRESSED_FLAG);
+        assertTrue(data.getData().length < value.length());
+        // Records compressed with Deflate are readable by every transcoder
+        for (StorageRecordTranscoder t : new StorageRecordTranscoder[] {compressing, transcoder}) {
+            final MemcachedStorageRecord actual = t.decode(data);
+            assertEquals(actual.getValue(), value);
+            assertEquals(actual.getExpiration(), expected.getExpiration());
+        }
+    }
+
+    @Test
+    public void testValuesLongerThanScratchBuffers() {
+        final StorageRecordTranscoder compressing = new StorageRecordTranscoder(new DeflateCompressionCodec(), 1024);
+        final String value = StorageRecordTranscoderBenchmark.sessionValue(65536);
+        final MemcachedStorageRecord expected = new MemcachedStorageRecord(value, 2515878896L);
+        final byte[] data = transcoder.encode(expected).getData();
+        assertEquals(Arrays.copyOfRange(data, 8, data.length), value.getBytes(StandardCharsets.UTF_8));
+        assertEquals(compressing.decode(compressing.encode(expected)).getValue(), value);
+    }
+
+    @Test
+    public void testValuesWhoseEncodingIsLongerThanScratchBuffers() {
+        final char[] chars = new char[12 * 1024];
+        Arrays.fill(chars, '\u660e');
+        final String value = new String(chars);
+        final MemcachedStorageRecord expected = new MemcachedStorageRecord(value, null);
+        final byte[] data = transcoder.encode(expected).getData();
+        assertEquals(Arrays.copyOfRange(data, 8, data.length), value.getBytes(StandardCharsets.UTF_8));
+        assertEquals(transcoder.decode(transcoder.encode(expected)).getValue(), value);
+    }
+
+    @Test
+    public void testSmallValuesNotCompressed() {
+        final StorageRecordTranscoder compressing = new StorageRecordTranscoder(new DeflateCompressionCodec(), 1024);
+        final MemcachedStorageRecord record = new MemcachedStorageRecord("Whither the weather", null);
+        final CachedData data = compressing.encode(record);
+        assertEquals(data.getFlags(), 0);
+        assertEquals(data.getData(), transcoder.encode(record).getData());
+        assertEquals(compressing.decode(transcoder.encode(record)).getValue(), "Whither the weather");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testUnknownCodec() {
+        final CachedData data = transcoder.encode(new MemcachedStorageRecord("x", null));
+        transcoder.decode(new CachedData(7 << 8 | StorageRecordTranscoder.COMPRESSED_FLAG, data.getData(), 1024));
+    }
+}